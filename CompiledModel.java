@@ -0,0 +1,1861 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Compiled form of the Hidden Markov Model built by POSTaggerEC: tags and words are interned to dense int ids, tag
+ * transitions are stored in a primitive matrix and observations in an EmissionTable of (tag id, log probability) pairs
+ * per word, so Viterbi decoding runs over primitive score arrays without any hashing or boxing inside the lattice
+ */
+
+public class CompiledModel {
+    private static final int MAGIC = 0x504F5331; //"POS1", first bytes of a saved model
+    private static final int VERSION = 5; //version of the saved model layout
+    private static final int OLDEST_VERSION = 3; //oldest layout still readable (4 added trigrams, 5 suffixes)
+    private static final MaxPlus MAX_PLUS = MaxPlus.load(); //inner step of maxPlusViterbi, SIMD if available
+
+    private final String[] tags; //tag name for each tag id
+    private final HashMap<String, Integer> tagIds; //tag name -> tag id
+    private final int start; //id of the "#" start state
+
+    private final int[][] succ; //succ[prev] = ids of tags reachable from prev, ascending
+    private final double[][] trans; //trans[prev][next] = transition log probability
+    private final boolean[][] linked; //linked[prev][next] = whether there is a transition from prev to next
+    private final double[][] columns; //columns[next][prev] = trans[prev][next], contiguous over prev for maxPlusViterbi
+
+    private final EmissionTable emissions; //word -> (tag id, observation log probability) pairs
+    private final NextWordIndex nextWords; //precomputed next tag and ranked words per tag
+    private final TrigramTable trigrams; //second-order transitions, null for a first-order model
+    private final SuffixTrie suffixes; //tag guesses for unknown words, null to expand every tag for them
+
+    private final double unobserved; //unseen word penalty
+
+    private final Bounds firstOrder; //transition bounds for proving pruned first-order decoding exact
+    private final Bounds secondOrder; //the same for trigram decoding, null for a first-order model
+
+    private CompiledModel(String[] tags, HashMap<String, Integer> tagIds, int start, int[][] succ, double[][] trans,
+                          EmissionTable emissions, NextWordIndex nextWords, TrigramTable trigrams, SuffixTrie suffixes,
+                          double unobserved) {
+        this.tags = tags;
+        this.tagIds = tagIds;
+        this.start = start;
+        this.succ = succ;
+        this.trans = trans;
+        this.emissions = emissions;
+        this.nextWords = nextWords;
+        this.trigrams = trigrams;
+        this.suffixes = suffixes;
+        this.unobserved = unobserved;
+
+        linked = new boolean[tags.length][tags.length];
+        columns = new double[tags.length][tags.length];
+        for (int prev = 0; prev < tags.length; prev++) {
+            for (int next : succ[prev]) linked[prev][next] = true;
+            for (int next = 0; next < tags.length; next++) columns[next][prev] = trans[prev][next];
+        }
+        firstOrder = new Bounds(trans);
+        secondOrder = trigrams == null ? null : new Bounds(pairBounds(trigrams, tags.length));
+    }
+
+    /**
+     * Highest second-order transition log probability into next from any pair state whose last tag is prev, for every
+     * (prev, next), negative infinity where there is none
+     */
+    private static double[][] pairBounds(TrigramTable trigrams, int numTags) {
+        double[][] bound = new double[numTags][numTags];
+        for (double[] row : bound) Arrays.fill(row, Double.NEGATIVE_INFINITY);
+        for (int pair = 0; pair < trigrams.numPairs(); pair++) {
+            int prev = trigrams.tag(pair);
+            double[] row = trigrams.row(pair);
+            int[] nextPairs = trigrams.pairsFrom(prev);
+            for (int next = 0; next < numTags; next++) {
+                if (nextPairs[next] >= 0 && row[next] > bound[prev][next]) bound[prev][next] = row[next];
+            }
+        }
+        return bound;
+    }
+
+    /**
+     * Method that compiles the probability maps of a trained (or hard-coded) model into primitive tables
+     *
+     * @param tagProb tag transitions probability
+     * @param obsProb observations probability
+     * @param unobserved unseen word penalty
+     */
+    public static CompiledModel compile(HashMap<String, HashMap<String, Double>> tagProb,
+                                        HashMap<String, HashMap<String, Double>> obsProb, double unobserved) {
+        //intern every tag that appears anywhere in the model, in sorted order so ids are deterministic
+        TreeSet<String> tagSet = new TreeSet<String>();
+        tagSet.add("#");
+        for (HashMap.Entry<String, HashMap<String, Double>> row : tagProb.entrySet()) {
+            tagSet.add(row.getKey());
+            tagSet.addAll(row.getValue().keySet());
+        }
+        tagSet.addAll(obsProb.keySet());
+
+        String[] tags = tagSet.toArray(new String[0]);
+        HashMap<String, Integer> tagIds = new HashMap<String, Integer>();
+        for (int id = 0; id < tags.length; id++) tagIds.put(tags[id], id);
+
+        //transition matrix plus the list of transitions that actually exist out of each tag
+        double[][] trans = new double[tags.length][tags.length];
+        int[][] succ = new int[tags.length][];
+        for (int prev = 0; prev < tags.length; prev++) {
+            succ[prev] = transitionRow(tagProb.get(tags[prev]), tagIds, trans[prev]);
+        }
+
+        //invert observations into word -> (tag id, log probability) lists
+        HashMap<String, Integer> wordIds = new HashMap<String, Integer>();
+        ArrayList<ArrayList<Integer>> wordTags = new ArrayList<ArrayList<Integer>>();
+        for (int tag = 0; tag < tags.length; tag++) {
+            HashMap<String, Double> row = obsProb.get(tags[tag]);
+            if (row == null) continue;
+
+            for (String word : row.keySet()) {
+                Integer id = wordIds.get(word);
+                if (id == null) {
+                    id = wordIds.size();
+                    wordIds.put(word, id);
+                    wordTags.add(new ArrayList<Integer>());
+                }
+                wordTags.get(id).add(tag); //tags are visited in ascending id order, so lists stay sorted
+            }
+        }
+
+        String[] words = new String[wordIds.size()];
+        int[][] obsTags = new int[wordIds.size()][];
+        double[][] obsScores = new double[wordIds.size()][];
+        for (HashMap.Entry<String, Integer> word : wordIds.entrySet()) {
+            words[word.getValue()] = word.getKey();
+            ArrayList<Integer> seen = wordTags.get(word.getValue());
+            int[] ids = new int[seen.size()];
+            double[] scores = new double[seen.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = seen.get(i);
+                scores[i] = obsProb.get(tags[ids[i]]).get(word.getKey());
+            }
+            obsTags[word.getValue()] = ids;
+            obsScores[word.getValue()] = scores;
+        }
+
+        EmissionTable emissions = new HeapEmissionTable(words, wordIds, obsTags, obsScores);
+        return new CompiledModel(tags, tagIds, tagIds.get("#"), succ, trans, emissions,
+                NextWordIndex.build(tagProb, obsProb, tags, tagIds), null, null, unobserved);
+    }
+
+    /**
+     * Method that adds second-order transitions estimated from the training counts (see TrigramTable), returning a new
+     * model that shares this one's tables and decodes with a trigram lattice. Incremental decoding sessions and
+     * next-word suggestions keep using the first-order transitions
+     *
+     * @param tagData tag transitions counts
+     * @param trigramData second-order counts: tag before last -> last tag -> next tag
+     */
+    public CompiledModel withTrigrams(HashMap<String, HashMap<String, Integer>> tagData,
+                                      HashMap<String, HashMap<String, HashMap<String, Integer>>> trigramData) {
+        TrigramTable table = TrigramTable.build(tags, tagIds, start, succ, tagData, trigramData);
+        return new CompiledModel(tags, tagIds, start, succ, trans, emissions, nextWords, table, suffixes, unobserved);
+    }
+
+    /**
+     * Method that adds an unknown-word model learned from the rare words of the training counts (see SuffixTrie),
+     * returning a new model that shares this one's tables. An unknown word then only expands the few tags its suffix
+     * and shape suggest, scored by the trie, instead of every tag at the unseen word penalty
+     *
+     * @param obsData observations counts
+     */
+    public CompiledModel withSuffixes(HashMap<String, HashMap<String, Integer>> obsData) {
+        SuffixTrie trie = SuffixTrie.build(tags, tagIds, obsData);
+        return new CompiledModel(tags, tagIds, start, succ, trans, emissions, nextWords, trigrams, trie, unobserved);
+    }
+
+    /**
+     * Getter for whether the model guesses the tags of unknown words from their suffixes
+     */
+    public boolean hasSuffixes() {
+        return suffixes != null;
+    }
+
+    /**
+     * Getter for the unknown-word model, or null if unknown words expand every tag
+     */
+    public SuffixTrie getSuffixes() {
+        return suffixes;
+    }
+
+    /**
+     * Getter for whether the model decodes with second-order (trigram) transitions
+     */
+    public boolean hasTrigrams() {
+        return trigrams != null;
+    }
+
+    /**
+     * Getter for the second-order transitions, or null for a first-order model
+     */
+    public TrigramTable getTrigrams() {
+        return trigrams;
+    }
+
+    /**
+     * Method that compiles updated probability maps in which only the given rows changed since this model was compiled,
+     * reusing this model's tables for everything else: only the changed transition rows, the words observed with a
+     * changed tag and those tags' next-word rankings are rebuilt. This model is left untouched, so readers still
+     * decoding against it are not disturbed. Falls back to a full compile when the update brings in a new tag (tag ids
+     * would shift) or the observation table is not on the heap. The result is first-order without an unknown-word
+     * model; those are added back with withTrigrams() and withSuffixes() from the updated counts
+     *
+     * @param tagProb updated tag transitions probability
+     * @param obsProb updated observations probability
+     * @param tagRows tags whose transitions row changed
+     * @param obsRows tags whose observations row changed
+     */
+    public CompiledModel update(HashMap<String, HashMap<String, Double>> tagProb,
+                                HashMap<String, HashMap<String, Double>> obsProb, Set<String> tagRows, Set<String> obsRows) {
+        if (!(emissions instanceof HeapEmissionTable) || !tagIds.keySet().containsAll(obsRows)) {
+            return compile(tagProb, obsProb, unobserved);
+        }
+        for (String tag : tagRows) {
+            HashMap<String, Double> row = tagProb.get(tag);
+            if (!tagIds.containsKey(tag) || (row != null && !tagIds.keySet().containsAll(row.keySet()))) {
+                return compile(tagProb, obsProb, unobserved);
+            }
+        }
+
+        //rebuild changed transition rows, sharing the others (rows are never written after compiling)
+        int numTags = tags.length;
+        int[][] newSucc = succ.clone();
+        double[][] newTrans = trans.clone();
+        for (String tag : tagRows) {
+            int prev = tagIds.get(tag);
+            newTrans[prev] = new double[numTags];
+            newSucc[prev] = transitionRow(tagProb.get(tag), tagIds, newTrans[prev]);
+        }
+
+        //new scores for every word observed with a changed tag, merged with its unchanged scores for the other tags
+        boolean[] obsChanged = new boolean[numTags];
+        for (String tag : obsRows) obsChanged[tagIds.get(tag)] = true;
+        HashMap<String, TreeMap<Integer, Double>> changed = new HashMap<String, TreeMap<Integer, Double>>();
+        for (String tag : obsRows) {
+            int id = tagIds.get(tag);
+            for (HashMap.Entry<String, Double> obs : obsProb.get(tag).entrySet()) {
+                TreeMap<Integer, Double> seen = changed.get(obs.getKey());
+                if (seen == null) {
+                    seen = new TreeMap<Integer, Double>();
+                    int handle = emissions.find(obs.getKey());
+                    for (int i = 0; handle >= 0 && i < emissions.numTags(handle); i++) {
+                        int other = emissions.tag(handle, i);
+                        if (!obsChanged[other]) seen.put(other, emissions.score(handle, i));
+                    }
+                    changed.put(obs.getKey(), seen);
+                }
+                seen.put(id, obs.getValue());
+            }
+        }
+
+        String[] words = new String[changed.size()];
+        int[][] obsTags = new int[changed.size()][];
+        double[][] obsScores = new double[changed.size()][];
+        int count = 0;
+        for (HashMap.Entry<String, TreeMap<Integer, Double>> word : changed.entrySet()) {
+            words[count] = word.getKey();
+            obsTags[count] = new int[word.getValue().size()];
+            obsScores[count] = new double[word.getValue().size()];
+            int i = 0;
+            for (HashMap.Entry<Integer, Double> obs : word.getValue().entrySet()) {
+                obsTags[count][i] = obs.getKey();
+                obsScores[count][i++] = obs.getValue();
+            }
+            count++;
+        }
+        HeapEmissionTable newEmissions = ((HeapEmissionTable) emissions).patch(words, obsTags, obsScores);
+
+        //re-rank the next tags and words of the changed rows
+        NextWordIndex newNextWords = nextWords.update(tagProb, obsProb, tagIds, tagRows, obsRows);
+
+        return new CompiledModel(tags, tagIds, start, newSucc, newTrans, newEmissions, newNextWords, null, null,
+                unobserved);
+    }
+
+    /**
+     * Fills one row of the transition matrix from a tagProb row (a missing row has no transitions), returning the ids
+     * of the tags it reaches in ascending order
+     */
+    private static int[] transitionRow(HashMap<String, Double> row, HashMap<String, Integer> tagIds, double[] trans) {
+        Arrays.fill(trans, Double.NEGATIVE_INFINITY);
+        if (row == null) return new int[0];
+
+        int[] next = new int[row.size()];
+        int count = 0;
+        for (HashMap.Entry<String, Double> t : row.entrySet()) {
+            int id = tagIds.get(t.getKey());
+            trans[id] = t.getValue();
+            next[count++] = id;
+        }
+        Arrays.sort(next);
+        return next;
+    }
+
+    /**
+     * Writes the model to a binary snapshot: the tag vocabulary, the transition matrix, the next-word index, the
+     * second-order transitions and the unknown-word model if there are any, then the word vocabulary and the
+     * observation table as a hashed MappedEmissionTable section, all big-endian
+     *
+     * @param path file to write
+     */
+    public void save(Path path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeDouble(unobserved);
+
+            //tag vocabulary and transitions
+            out.writeInt(tags.length);
+            for (String tag : tags) writeString(out, tag);
+            out.writeInt(start);
+            for (int[] next : succ) {
+                out.writeInt(next.length);
+                for (int tag : next) out.writeInt(tag);
+            }
+            for (double[] row : trans) {
+                for (double score : row) out.writeDouble(score);
+            }
+
+            nextWords.write(out);
+            out.writeBoolean(trigrams != null);
+            if (trigrams != null) trigrams.write(out);
+            out.writeBoolean(suffixes != null);
+            if (suffixes != null) suffixes.write(out);
+
+            //word vocabulary and observations, in the layout MappedEmissionTable reads in place
+            MappedEmissionTable.write(emissions, out);
+        }
+    }
+
+    /**
+     * Reads a snapshot written by save() through a memory-mapped file channel, copying the observation table onto the
+     * heap
+     *
+     * @param path file to read
+     */
+    public static CompiledModel load(Path path) throws IOException {
+        return load(path, false);
+    }
+
+    /**
+     * Reads a snapshot written by save() through a memory-mapped file channel. With mapped set, the observation table
+     * is used in place from the mapping instead of being copied onto the heap, so it costs no heap space and the pages
+     * are shared with every other process mapping the same file
+     *
+     * @param path file to read
+     * @param mapped whether to keep the observation table in the mapped file
+     */
+    public static CompiledModel load(Path path, boolean mapped) throws IOException {
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        try {
+            if (in.getInt() != MAGIC) throw new IOException("Not a saved model: " + path);
+            int version = in.getInt();
+            if (version < OLDEST_VERSION || version > VERSION) {
+                throw new IOException("Unsupported model version " + version + ": " + path);
+            }
+            double unobserved = in.getDouble();
+
+            //tag vocabulary and transitions
+            String[] tags = new String[readCount(in, 4)];
+            HashMap<String, Integer> tagIds = new HashMap<String, Integer>(2 * tags.length);
+            for (int id = 0; id < tags.length; id++) {
+                tags[id] = readString(in);
+                tagIds.put(tags[id], id);
+            }
+            int start = in.getInt();
+            if (start < 0 || start >= tags.length) throw new IOException("Corrupt model file, start tag: " + path);
+            int[][] succ = new int[tags.length][];
+            for (int prev = 0; prev < tags.length; prev++) {
+                succ[prev] = new int[readCount(in, 4)];
+                in.asIntBuffer().get(succ[prev]);
+                in.position(in.position() + 4 * succ[prev].length);
+                for (int next : succ[prev]) {
+                    if (next < 0 || next >= tags.length) {
+                        throw new IOException("Corrupt model file, transitions: " + path);
+                    }
+                }
+            }
+            if (tags.length > in.remaining() / 8 / Math.max(tags.length, 1)) {
+                throw new IOException("Truncated model file: " + path);
+            }
+            double[][] trans = new double[tags.length][tags.length];
+            for (double[] row : trans) {
+                in.asDoubleBuffer().get(row);
+                in.position(in.position() + 8 * row.length);
+            }
+
+            NextWordIndex nextWords = NextWordIndex.read(in, tags.length);
+            TrigramTable trigrams = version >= 4 && in.get() != 0 ? TrigramTable.read(in, tags.length) : null;
+            SuffixTrie suffixes = version >= 5 && in.get() != 0 ? SuffixTrie.read(in, tags.length) : null;
+
+            //word vocabulary and observations
+            if (in.remaining() < 12 || in.remaining() < MappedEmissionTable.length(in)) {
+                throw new IOException("Truncated model file: " + path);
+            }
+            MappedEmissionTable table = new MappedEmissionTable(in);
+            table.check(tags.length);
+            EmissionTable emissions = mapped ? table : HeapEmissionTable.copyOf(table);
+
+            return new CompiledModel(tags, tagIds, start, succ, trans, emissions, nextWords, trigrams, suffixes,
+                    unobserved);
+        }
+        catch (BufferUnderflowException e) {
+            throw new IOException("Truncated model file: " + path);
+        }
+        catch (RuntimeException e) {
+            //counts read from a damaged file can still trip array sizes or indexes that the checks above don't cover
+            throw new IOException("Corrupt model file: " + path, e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a count of items that take at least itemBytes bytes each, rejecting it before anything is allocated if
+     * the rest of the buffer could not possibly hold that many
+     */
+    static int readCount(ByteBuffer in, int itemBytes) throws IOException {
+        int count = in.getInt();
+        if (count < 0 || count > in.remaining() / itemBytes) throw new IOException("Corrupt count " + count);
+        return count;
+    }
+
+    private static String readString(ByteBuffer in) throws IOException {
+        byte[] bytes = new byte[readCount(in, 1)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Method that performs Viterbi decoding over the compiled tables to identify the best sequence of tags for a given
+     * line, including the unseen word penalty.
+     *
+     * A known word first only expands the tags it was observed with (its emission table row), falling back to every tag
+     * when none of those is reachable; unknown words expand every tag with the penalty, or with an unknown-word model
+     * (see withSuffixes) only the candidate tags of their suffix, in the same way as a known word. The skipped states
+     * could only be entered at the penalty, but the best path can still need one, e.g. when every observed tag of a
+     * word leads to a dead end for the next word. So after decoding, a backward pass over the words' own tags bounds
+     * what a path through any skipped state could score; if that might reach the best score found, the line is decoded
+     * again over every tag, skipping only states that provably cannot reach it. The tags are always those of Viterbi
+     * over the full model.
+     *
+     * Ties between paths of equal score are broken by lowest tag id: each state keeps the lowest previous tag among
+     * its best predecessors, and the path ends in the lowest best last tag. POSTaggerEC.mapViterbi breaks them by
+     * HashMap order instead, so on a tie the two can return different sequences of the same score.
+     *
+     * A model with second-order transitions (see withTrigrams) decodes over pairs of tags instead, with the same
+     * expansion rules and check, breaking ties by lowest pair id
+     *
+     * @param line String of words
+     */
+    public ArrayList<String> viterbi(String line) {
+        return viterbi(line, Integer.MAX_VALUE, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Beam-pruned Viterbi decoding: after each word only the beamWidth best states, and only states within beamMargin
+     * of the best score, are kept to expand from. Trades a bounded loss of accuracy for less work per word, so the
+     * result is not checked against the full model as in viterbi(String); with a width of at least the number of
+     * states (tags, or tag pairs of a trigram model) and an infinite margin it is exact Viterbi
+     *
+     * @param line String of words
+     * @param beamWidth maximum number of states kept per word
+     * @param beamMargin maximum log score distance from the best state kept per word
+     */
+    public ArrayList<String> viterbi(String line, int beamWidth, double beamMargin) {
+        Tokenizer words = new Tokenizer();
+        words.split(line);
+        return viterbi(words, beamWidth, beamMargin);
+    }
+
+    /**
+     * Viterbi decoding of the tokens of the line a tokenizer last split, without turning them into Strings
+     *
+     * @param words tokenizer holding the split line
+     */
+    public ArrayList<String> viterbi(Tokenizer words) {
+        return viterbi(words, Integer.MAX_VALUE, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Beam-pruned Viterbi decoding of the tokens of the line a tokenizer last split, looking the words up without
+     * turning them into Strings (see viterbi(String, int, double))
+     *
+     * @param words tokenizer holding the split line
+     * @param beamWidth maximum number of states kept per word
+     * @param beamMargin maximum log score distance from the best state kept per word
+     */
+    public ArrayList<String> viterbi(Tokenizer words, int beamWidth, double beamMargin) {
+        if (beamWidth < 1) throw new IllegalArgumentException("Beam width must be at least 1: " + beamWidth);
+        return viterbi(words, beamWidth, beamMargin, new Scratch());
+    }
+
+    /**
+     * Method that tags a batch of lines, returning their tags in input order. The lines are decoded shortest first
+     * over one set of lattice buffers that is reused from line to line, so the buffers only grow a few times per batch
+     * and stay in cache, instead of being allocated for every line. The tags are the same as viterbi() gives line by
+     * line. The buffers belong to the call, so any number of threads can tag batches at once
+     *
+     * @param lines lines of words
+     */
+    public List<ArrayList<String>> tagBatch(List<String> lines) {
+        int numLines = lines.size();
+        Tokenizer words = new Tokenizer();
+
+        //group lines by length: sort their indices by token count, keeping input order within a length
+        long[] order = new long[numLines];
+        for (int i = 0; i < numLines; i++) order[i] = (long) words.split(lines.get(i)) << 32 | i;
+        Arrays.sort(order);
+
+        ArrayList<ArrayList<String>> labels = new ArrayList<ArrayList<String>>(Collections.nCopies(numLines, null));
+        Scratch scratch = new Scratch();
+        for (long key : order) {
+            int line = (int) key;
+            words.split(lines.get(line));
+            labels.set(line, viterbi(words, Integer.MAX_VALUE, Double.POSITIVE_INFINITY, scratch));
+        }
+        return labels;
+    }
+
+    /**
+     * Viterbi decoding of the tokens of the line a tokenizer last split over the buffers of scratch
+     */
+    private ArrayList<String> viterbi(Tokenizer words, int beamWidth, double beamMargin, Scratch scratch) {
+        if (trigrams != null) return trigramViterbi(words, beamWidth, beamMargin, scratch);
+        long startTime = TaggerMetrics.now();
+        int numWords = words.size();
+        int numTags = tags.length;
+        boolean pruning = beamWidth < numTags || beamMargin < Double.POSITIVE_INFINITY;
+        double[] beamScores = pruning ? scratch.beamScores(numTags) : null; //scratch for finding the beam threshold
+
+        double[] currScores = scratch.currScores, nextScores = scratch.nextScores;
+        boolean[] currLive = scratch.currLive, nextLive = scratch.nextLive;
+        double[] obs = scratch.obs; //observation score of the current word for every tag
+        int[][] pred = scratch.pred(numWords); //predecessor of each state
+        scratch.reserve(numWords);
+        int[] handles = scratch.handles, guesses = scratch.guesses;
+        double[] penalties = scratch.penalties; //bound on the states each word skipped
+
+        //starts observation sequence with "#" and score of 0.0
+        startColumn(currScores, currLive);
+        int[] liveTags = scratch.liveTags; //scratch for the ids of the live states of a column
+
+        for (int ind = 0; ind < numWords; ind++) {
+            CharSequence word = words.token(ind);
+            handles[ind] = handle(word);
+            guesses[ind] = guess(word, handles[ind]);
+            penalties[ind] = step(handles[ind], guesses[ind], currScores, currLive, nextScores, nextLive, pred[ind],
+                    liveTags, obs);
+            if (pruning) prune(nextScores, nextLive, numTags, beamWidth, beamMargin, beamScores);
+
+            double[] tmpScores = currScores; currScores = nextScores; nextScores = tmpScores;
+            boolean[] tmpLive = currLive; currLive = nextLive; nextLive = tmpLive;
+        }
+
+        //decode again without skipping states if one of the skipped ones might be on the best path
+        int maxTag = bestTag(currScores, currLive);
+        if (!pruning) {
+            double best = maxTag < 0 ? Double.NEGATIVE_INFINITY : currScores[maxTag];
+            if (!certified(numWords, handles, guesses, penalties, best, firstOrder, scratch.rest)) {
+                maxTag = exactDecode(numWords, handles, guesses, best - tolerance(best), scratch.rest, scratch);
+            }
+        }
+
+        //backtrack to identify path
+        ArrayList<String> labels = labels(numWords, maxTag, pred);
+        TaggerMetrics.recordDecode(numWords, TaggerMetrics.now() - startTime);
+        return labels;
+    }
+
+    /**
+     * Method that performs Viterbi decoding with each step written as a max-plus matrix-vector product over the dense
+     * transition matrix: every tag a word expands takes the max over all previous tags of score + transition, through
+     * the MaxPlus kernel (SIMD lanes with the jdk.incubator.vector module, a scalar loop otherwise). Expands the same
+     * tags as viterbi(), breaks ties the same way (lowest previous tag) and falls back to the same exact decoding when a
+     * skipped state might be on the best path, so the tags are identical. A model with second-order transitions decodes
+     * with viterbi()
+     *
+     * @param line String of words
+     */
+    public ArrayList<String> maxPlusViterbi(String line) {
+        Tokenizer words = new Tokenizer();
+        words.split(line);
+        return maxPlusViterbi(words);
+    }
+
+    /**
+     * Max-plus Viterbi decoding of the tokens of the line a tokenizer last split (see maxPlusViterbi(String))
+     *
+     * @param words tokenizer holding the split line
+     */
+    public ArrayList<String> maxPlusViterbi(Tokenizer words) {
+        if (trigrams != null) return viterbi(words);
+        long startTime = TaggerMetrics.now();
+        int numWords = words.size();
+        int numTags = tags.length;
+
+        //dead states score negative infinity, so the kernel needs no live flags
+        double[] currScores = new double[numTags], nextScores = new double[numTags];
+        double[] obs = new double[numTags];
+        int[][] pred = new int[numWords][numTags];
+        int[] handles = new int[numWords], guesses = new int[numWords];
+        double[] penalties = new double[numWords], rest = new double[numWords];
+        Arrays.fill(currScores, Double.NEGATIVE_INFINITY);
+        currScores[start] = 0.0;
+
+        for (int ind = 0; ind < numWords; ind++) {
+            Arrays.fill(nextScores, Double.NEGATIVE_INFINITY);
+            CharSequence word = words.token(ind);
+            int handle = handle(word);
+            int guess = guess(word, handle);
+            handles[ind] = handle;
+            guesses[ind] = guess;
+            if (TaggerMetrics.ENABLED) {
+                int numLive = 0;
+                for (double score : currScores) if (score > Double.NEGATIVE_INFINITY) numLive++;
+                TaggerMetrics.recordStep(numLive, handle < 0);
+            }
+
+            //same expansion as step(): observed (or guessed) tags first, every tag if none of those is reachable
+            boolean reached = false;
+            for (int i = 0; handle >= 0 && i < emissions.numTags(handle); i++) {
+                double obsScore = emissions.score(handle, i);
+                reached |= enter(emissions.tag(handle, i), obsScore, currScores, nextScores, pred[ind]);
+            }
+            for (int i = 0; guess >= 0 && i < suffixes.numTags(guess); i++) {
+                double obsScore = suffixes.score(guess, i);
+                reached |= enter(suffixes.tag(guess, i), obsScore, currScores, nextScores, pred[ind]);
+            }
+            if (reached) {
+                //bound on the states skipped, as in penalty()
+                double bound = Double.NEGATIVE_INFINITY;
+                for (int tag = 0; tag < numTags; tag++) bound = Math.max(bound, currScores[tag] + firstOrder.out[tag]);
+                penalties[ind] = bound + unobserved;
+            }
+            else {
+                if (handle >= 0 || guess >= 0) TaggerMetrics.recordFallback(handle < 0);
+                fillObservations(handle, guess, obs);
+                for (int tag = 0; tag < numTags; tag++) enter(tag, obs[tag], currScores, nextScores, pred[ind]);
+                penalties[ind] = Double.NEGATIVE_INFINITY;
+            }
+
+            double[] tmpScores = currScores; currScores = nextScores; nextScores = tmpScores;
+        }
+
+        //best last tag, lowest id on ties, as in bestTag()
+        double maxScore = Double.MAX_VALUE * (-1.0);
+        int maxTag = -1;
+        for (int tag = 0; tag < numTags; tag++) {
+            if (currScores[tag] > maxScore) {
+                maxScore = currScores[tag];
+                maxTag = tag;
+            }
+        }
+
+        double best = maxTag < 0 ? Double.NEGATIVE_INFINITY : maxScore;
+        if (!certified(numWords, handles, guesses, penalties, best, firstOrder, rest)) {
+            Scratch scratch = new Scratch();
+            maxTag = exactDecode(numWords, handles, guesses, best - tolerance(best), rest, scratch);
+            pred = scratch.pred(numWords);
+        }
+
+        ArrayList<String> labels = labels(numWords, maxTag, pred);
+        TaggerMetrics.recordDecode(numWords, TaggerMetrics.now() - startTime);
+        return labels;
+    }
+
+    /**
+     * One max-plus product row: enters tag into the next column from its best predecessor, returning false if no
+     * state of the current column can reach it
+     */
+    private boolean enter(int tag, double obsScore, double[] currScores, double[] nextScores, int[] pred) {
+        int prev = MAX_PLUS.argMax(currScores, columns[tag], obsScore);
+        if (prev < 0) return false;
+        nextScores[tag] = currScores[prev] + columns[tag][prev] + obsScore;
+        pred[tag] = prev;
+        return true;
+    }
+
+    /**
+     * Getter for the name of the max-plus kernel maxPlusViterbi runs on
+     */
+    public static String maxPlusKernel() {
+        return MAX_PLUS.name();
+    }
+
+    /**
+     * Second-order Viterbi decoding over (previous tag, tag) pair states of the trigram table. Each word expands the
+     * same tags as in first-order decoding (its observed tags, or every tag for unknown words and when none of those
+     * is reachable), so a column holds the few pairs the last two words allow instead of numTags^2, and is checked and
+     * decoded again over every tag in the same way if a skipped pair might be on the best path. Columns are stored one
+     * after another in a Lattice, each state pointing back to its predecessor in the previous column. Beam pruning
+     * applies to the pair states of each column
+     */
+    private ArrayList<String> trigramViterbi(Tokenizer words, int beamWidth, double beamMargin, Scratch scratch) {
+        long startTime = TaggerMetrics.now();
+        int numWords = words.size();
+        int numPairs = trigrams.numPairs();
+        boolean pruning = beamWidth < numPairs || beamMargin < Double.POSITIVE_INFINITY;
+        double[] columnScores = pruning ? new double[numPairs] : null; //scratch for pruning a column
+        boolean[] columnLive = pruning ? new boolean[numPairs] : null;
+        double[] beamScores = pruning ? scratch.beamScores(numPairs) : null;
+
+        double[] obs = scratch.obs; //observation score of the current word for every tag
+        int[] columnStart = scratch.columnStart(numWords + 2); //column ind is columnStart[ind] to columnStart[ind+1]-1
+        Lattice lattice = scratch.lattice(numPairs, 8 * (numWords + 1));
+        scratch.reserve(numWords);
+        int[] handles = scratch.handles, guesses = scratch.guesses;
+        double[] penalties = scratch.penalties; //bound on the pair states each word skipped
+
+        //starts with the ("#", "#") pair and score of 0.0
+        lattice.startColumn();
+        lattice.offer(trigrams.startPair(), -1, 0.0);
+
+        for (int ind = 0; ind < numWords; ind++) {
+            int from = columnStart[ind], to = lattice.size;
+            columnStart[ind + 1] = to;
+            lattice.startColumn();
+
+            //known words only expand their observed tags, unknown words their guessed tags if there is an unknown-word
+            //model; otherwise every successor of every live pair
+            CharSequence word = words.token(ind);
+            int handle = handle(word);
+            int guess = guess(word, handle);
+            handles[ind] = handle;
+            guesses[ind] = guess;
+            TaggerMetrics.recordStep(to - from, handle < 0);
+            if ((handle >= 0 && expandObservedPairs(handle, lattice, from, to))
+                    || (guess >= 0 && expandGuessedPairs(guess, lattice, from, to))) {
+                //bound on the pairs skipped, as in penalty()
+                double bound = Double.NEGATIVE_INFINITY;
+                for (int state = from; state < to; state++) {
+                    bound = Math.max(bound, lattice.score[state] + secondOrder.out[trigrams.tag(lattice.pair[state])]);
+                }
+                penalties[ind] = bound + unobserved;
+            }
+            else {
+                if (handle >= 0 || guess >= 0) TaggerMetrics.recordFallback(handle < 0);
+                fillObservations(handle, guess, obs);
+                for (int state = from; state < to; state++) {
+                    int pair = lattice.pair[state];
+                    int curr = trigrams.tag(pair);
+                    double[] row = trigrams.row(pair);
+                    int[] nextPairs = trigrams.pairsFrom(curr);
+                    double currScore = lattice.score[state];
+                    for (int next = 0; next < tags.length; next++) {
+                        if (nextPairs[next] < 0 || row[next] == Double.NEGATIVE_INFINITY) continue;
+                        lattice.offer(nextPairs[next], state, currScore + row[next] + obs[next]);
+                    }
+                }
+                penalties[ind] = Double.NEGATIVE_INFINITY;
+            }
+
+            if (pruning) {
+                int count = lattice.size - to;
+                for (int i = 0; i < count; i++) {
+                    columnScores[i] = lattice.score[to + i];
+                    columnLive[i] = true;
+                }
+                prune(columnScores, columnLive, count, beamWidth, beamMargin, beamScores);
+                lattice.keep(to, columnLive);
+            }
+        }
+        columnStart[numWords + 1] = lattice.size;
+
+        //best pair of the last column, decoded again without skipping pairs if a skipped one might beat it
+        int best = numWords == 0 ? -1 : bestState(lattice, columnStart[numWords]);
+        if (!pruning) {
+            double bestScore = best < 0 ? Double.NEGATIVE_INFINITY : lattice.score[best];
+            if (!certified(numWords, handles, guesses, penalties, bestScore, secondOrder, scratch.rest)) {
+                best = exactPairs(numWords, handles, guesses, bestScore - tolerance(bestScore), scratch.rest, lattice,
+                        columnStart, obs);
+            }
+        }
+
+        //backtrack through the back pointers
+        ArrayList<String> labels;
+        if (best < 0) labels = labels(numWords, -1, null); //no words, or no tag sequence can produce the sentence
+        else {
+            String[] path = new String[numWords];
+            for (int ind = numWords - 1, state = best; ind >= 0; ind--, state = lattice.back[state]) {
+                path[ind] = tags[trigrams.tag(lattice.pair[state])];
+            }
+            labels = new ArrayList<String>(Arrays.asList(path));
+        }
+        TaggerMetrics.recordDecode(numWords, TaggerMetrics.now() - startTime);
+        return labels;
+    }
+
+    /**
+     * Second-order counterpart of exactDecode: builds the trigram lattice of numWords words again over every successor
+     * pair of every state, at the unseen word penalty for tags the word was not observed with, skipping only pairs
+     * that cannot finish at or above lower. Returns the best state of the last column, or -1 if there is none
+     */
+    private int exactPairs(int numWords, int[] handles, int[] guesses, double lower, double[] rest, Lattice lattice,
+                           int[] columnStart, double[] obs) {
+        boolean[] keep = new boolean[trigrams.numPairs()];
+        lattice.clear();
+        lattice.startColumn();
+        lattice.offer(trigrams.startPair(), -1, 0.0);
+
+        for (int ind = 0; ind < numWords; ind++) {
+            int from = columnStart[ind], to = lattice.size;
+            columnStart[ind + 1] = to;
+            lattice.startColumn();
+
+            int handle = handles[ind], guess = guesses[ind];
+            int numCandidates = numCandidates(handle, guess);
+            fillObservations(handle, guess, obs);
+            for (int state = from; state < to; state++) {
+                int pair = lattice.pair[state];
+                int curr = trigrams.tag(pair);
+                double[] row = trigrams.row(pair);
+                int[] nextPairs = trigrams.pairsFrom(curr);
+                double currScore = lattice.score[state];
+
+                //tags the word was not observed with only matter if entering one at the penalty could still pay off
+                boolean all = currScore + secondOrder.out[curr] + unobserved + rest[ind] >= lower;
+                int count = all ? tags.length : numCandidates;
+                for (int i = 0; i < count; i++) {
+                    int next = all ? i : candidate(handle, guess, i);
+                    if (nextPairs[next] < 0 || row[next] == Double.NEGATIVE_INFINITY) continue;
+                    lattice.offer(nextPairs[next], state, currScore + row[next] + obs[next]);
+                }
+            }
+
+            int count = lattice.size - to;
+            for (int i = 0; i < count; i++) keep[i] = lattice.score[to + i] + rest[ind] >= lower;
+            lattice.keep(to, keep);
+        }
+        columnStart[numWords + 1] = lattice.size;
+        return numWords == 0 ? -1 : bestState(lattice, columnStart[numWords]);
+    }
+
+    /**
+     * State of the last column of a trigram lattice, which starts at from, with the highest score (lowest pair id on
+     * ties), or -1 if none scores above -Double.MAX_VALUE
+     */
+    private static int bestState(Lattice lattice, int from) {
+        int best = -1;
+        double maxScore = Double.MAX_VALUE * (-1.0);
+        for (int state = from; state < lattice.size; state++) {
+            double score = lattice.score[state];
+            if (score > maxScore || (score == maxScore && best >= 0 && lattice.pair[state] < lattice.pair[best])) {
+                maxScore = score;
+                best = state;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Expands one column of the trigram lattice for a known word over only the tags it was observed with. Returns
+     * false, leaving the column empty, if none of those tags is reachable from the pairs of the previous column
+     */
+    private boolean expandObservedPairs(int handle, Lattice lattice, int from, int to) {
+        int numSeen = emissions.numTags(handle);
+        for (int state = from; state < to; state++) {
+            int pair = lattice.pair[state];
+            int curr = trigrams.tag(pair);
+            double[] row = trigrams.row(pair);
+            int[] nextPairs = trigrams.pairsFrom(curr);
+            double currScore = lattice.score[state];
+
+            for (int i = 0; i < numSeen; i++) {
+                int next = emissions.tag(handle, i);
+                if (nextPairs[next] < 0 || row[next] == Double.NEGATIVE_INFINITY) continue;
+                lattice.offer(nextPairs[next], state, currScore + row[next] + emissions.score(handle, i));
+            }
+        }
+        return lattice.size > to;
+    }
+
+    /**
+     * Expands one column of the trigram lattice for an unknown word over only the candidate tags of its suffix trie
+     * node. Returns false, leaving the column empty, if none of those tags is reachable
+     */
+    private boolean expandGuessedPairs(int guess, Lattice lattice, int from, int to) {
+        int numGuessed = suffixes.numTags(guess);
+        for (int state = from; state < to; state++) {
+            int pair = lattice.pair[state];
+            double[] row = trigrams.row(pair);
+            int[] nextPairs = trigrams.pairsFrom(trigrams.tag(pair));
+            double currScore = lattice.score[state];
+
+            for (int i = 0; i < numGuessed; i++) {
+                int next = suffixes.tag(guess, i);
+                if (nextPairs[next] < 0 || row[next] == Double.NEGATIVE_INFINITY) continue;
+                lattice.offer(nextPairs[next], state, currScore + row[next] + suffixes.score(guess, i));
+            }
+        }
+        return lattice.size > to;
+    }
+
+    /**
+     * Sets up the lattice column before the first word: only the "#" start state is live, with score 0.0
+     */
+    void startColumn(double[] scores, boolean[] live) {
+        Arrays.fill(live, false);
+        scores[start] = 0.0;
+        live[start] = true;
+    }
+
+    /**
+     * Emission handle of word, or -1 if it was never observed
+     */
+    int handle(CharSequence word) {
+        return emissions.find(word);
+    }
+
+    /**
+     * Suffix trie node of a word with the given emission handle if it is unknown (handle -1) and there is an
+     * unknown-word model, otherwise -1
+     */
+    int guess(CharSequence word, int handle) {
+        return handle < 0 && suffixes != null ? suffixes.find(word) : -1;
+    }
+
+    /**
+     * One lattice step: fills the next column's scores, live states and predecessors from the current column for the
+     * word with the given emission handle and suffix guess (see handle() and guess()). liveTags and obs are scratch
+     * arrays with one slot per tag. Returns a bound on the score of every state it skipped by only expanding the word's
+     * own tags (negative infinity if it skipped none), for checking the decoded path with exactPath()
+     */
+    double step(int handle, int guess, double[] currScores, boolean[] currLive, double[] nextScores,
+                boolean[] nextLive, int[] pred, int[] liveTags, double[] obs) {
+        int numTags = tags.length;
+        Arrays.fill(nextLive, false);
+        int numLive = 0;
+        for (int tag = 0; tag < numTags; tag++) {
+            if (currLive[tag]) liveTags[numLive++] = tag;
+        }
+
+        //known words only expand their observed tags, unknown words their guessed tags if there is an unknown-word
+        //model; otherwise every successor of every live state
+        TaggerMetrics.recordStep(numLive, handle < 0);
+        if (handle >= 0 && expandObserved(handle, liveTags, numLive, currScores, nextScores, nextLive, pred)) {
+            return penalty(liveTags, numLive, currScores);
+        }
+        if (guess >= 0 && expandGuessed(guess, liveTags, numLive, currScores, nextScores, nextLive, pred)) {
+            return penalty(liveTags, numLive, currScores);
+        }
+        if (handle >= 0 || guess >= 0) TaggerMetrics.recordFallback(handle < 0);
+
+        fillObservations(handle, guess, obs);
+        for (int live = 0; live < numLive; live++) {
+            int curr = liveTags[live];
+            int[] next = succ[curr];
+            double[] row = trans[curr];
+            double currScore = currScores[curr];
+
+            for (int i = 0; i < next.length; i++) {
+                int tag = next[i];
+                double nextScore = currScore + row[tag] + obs[tag];
+                if (!nextLive[tag] || nextScore > nextScores[tag]) {
+                    nextLive[tag] = true;
+                    nextScores[tag] = nextScore;
+                    pred[tag] = curr;
+                }
+            }
+        }
+        return Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Bound on the score of every state a step skipped by only expanding its word's own tags: any of them is entered
+     * from a live state at the unseen word penalty, over at most the highest transition out of that state
+     */
+    private double penalty(int[] liveTags, int numLive, double[] currScores) {
+        double bound = Double.NEGATIVE_INFINITY;
+        for (int live = 0; live < numLive; live++) {
+            int curr = liveTags[live];
+            bound = Math.max(bound, currScores[curr] + firstOrder.out[curr]);
+        }
+        return bound + unobserved;
+    }
+
+    /**
+     * Checks a first-order decoding of numWords words done with step(), given the words' emission handles and suffix
+     * guesses, the penalty bounds step() returned and the score of the best last state (negative infinity if none is
+     * live). Returns null if none of the skipped states can be on the best path of the full model, otherwise the exact
+     * tag ids decoded again over every tag (empty if no tag sequence can produce the words)
+     */
+    int[] exactPath(int numWords, int[] handles, int[] guesses, double[] penalties, double best) {
+        double[] rest = new double[numWords];
+        if (certified(numWords, handles, guesses, penalties, best, firstOrder, rest)) return null;
+
+        Scratch scratch = new Scratch();
+        int maxTag = exactDecode(numWords, handles, guesses, best - tolerance(best), rest, scratch);
+        return maxTag < 0 ? new int[0] : path(numWords, maxTag, scratch.pred(numWords));
+    }
+
+    /**
+     * Whether a decoding of numWords words that skipped states is nonetheless exact: penalties[ind] bounds the score of
+     * every state skipped at word ind (negative infinity where none was), and rest, filled here (see completionBounds),
+     * bounds what a path from any of them could still add, so it is exact if none of them can finish at or above the
+     * best final score found. Tries the cheap loose bounds first and the tight ones only if those are not enough
+     */
+    private boolean certified(int numWords, int[] handles, int[] guesses, double[] penalties, double best,
+                              Bounds bounds, double[] rest) {
+        boolean skipped = false;
+        for (int ind = 0; ind < numWords; ind++) skipped |= penalties[ind] > Double.NEGATIVE_INFINITY;
+        if (!skipped) return true;
+
+        double lower = best - tolerance(best);
+        for (boolean tight : new boolean[] {false, true}) {
+            completionBounds(numWords, handles, guesses, bounds, tight, rest);
+            boolean ruledOut = true;
+            for (int ind = 0; ruledOut && ind < numWords; ind++) ruledOut = penalties[ind] + rest[ind] < lower;
+            if (ruledOut) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Fills rest[ind] with a bound on the score any path of the full model can still add after word ind, whichever
+     * state it is in (0.0 after the last word). Works backwards over only the observed or guessed tags of each word,
+     * covering all the other tags at once with the unseen word penalty. Loose bounds take the highest transition out of
+     * each tag for every transition, so they cost one pass over the words' tags; tight ones look at the transitions
+     * between the tags of consecutive words, which costs about as much as the pruned expansion
+     */
+    private void completionBounds(int numWords, int[] handles, int[] guesses, Bounds bounds, boolean tight,
+                                  double[] rest) {
+        double[] currRest = new double[tags.length], nextRest = new double[tags.length]; //bound from each own tag
+        rest[numWords - 1] = 0.0;
+        int numNext = numCandidates(handles[numWords - 1], guesses[numWords - 1]);
+        Arrays.fill(nextRest, 0, numNext, 0.0);
+
+        for (int ind = numWords - 2; ind >= 0; ind--) {
+            int handle = handles[ind + 1], guess = guesses[ind + 1];
+            double penalized = unobserved + rest[ind + 1]; //any tag of the next word at the penalty, then anything
+
+            double bound = bounds.outAll + penalized;
+            double fromAny = penalized; //the most any tag of the next word adds besides its transition
+            for (int i = 0; i < numNext; i++) {
+                int next = candidate(handle, guess, i);
+                double fromNext = candidateScore(handle, guess, i) + nextRest[i];
+                bound = Math.max(bound, bounds.in[next] + fromNext);
+                fromAny = Math.max(fromAny, fromNext);
+            }
+            rest[ind] = bound;
+
+            int numCurr = numCandidates(handles[ind], guesses[ind]);
+            for (int m = 0; m < numCurr; m++) {
+                int curr = candidate(handles[ind], guesses[ind], m);
+                if (!tight) {
+                    currRest[m] = bounds.out[curr] + fromAny;
+                    continue;
+                }
+
+                double[] row = bounds.trans[curr];
+                double fromCurr = bounds.out[curr] + penalized;
+                for (int i = 0; i < numNext; i++) {
+                    int next = candidate(handle, guess, i);
+                    fromCurr = Math.max(fromCurr, row[next] + candidateScore(handle, guess, i) + nextRest[i]);
+                }
+                currRest[m] = fromCurr;
+            }
+
+            double[] tmpRest = currRest; currRest = nextRest; nextRest = tmpRest;
+            numNext = numCurr;
+        }
+    }
+
+    /**
+     * Viterbi decoding of numWords words, given by their emission handles and suffix guesses, over the full model:
+     * every successor of every live state, at the unseen word penalty for tags the word was not observed with. Only
+     * states that cannot finish at or above lower are skipped (rest as filled by completionBounds), so the tags and
+     * ties are those of unpruned Viterbi. Fills the predecessor rows of scratch and returns the best last tag, or -1 if
+     * there is none
+     */
+    private int exactDecode(int numWords, int[] handles, int[] guesses, double lower, double[] rest, Scratch scratch) {
+        int numTags = tags.length;
+        double[] currScores = scratch.currScores, nextScores = scratch.nextScores;
+        boolean[] currLive = scratch.currLive, nextLive = scratch.nextLive;
+        double[] obs = scratch.obs;
+        int[][] pred = scratch.pred(numWords);
+        startColumn(currScores, currLive);
+
+        for (int ind = 0; ind < numWords; ind++) {
+            int handle = handles[ind], guess = guesses[ind];
+            int numCandidates = numCandidates(handle, guess);
+            fillObservations(handle, guess, obs);
+            Arrays.fill(nextLive, false);
+
+            for (int curr = 0; curr < numTags; curr++) {
+                if (!currLive[curr]) continue;
+                double currScore = currScores[curr];
+                double[] row = trans[curr];
+
+                //tags the word was not observed with only matter if entering one at the penalty could still pay off
+                boolean all = currScore + firstOrder.out[curr] + unobserved + rest[ind] >= lower;
+                int count = all ? succ[curr].length : numCandidates;
+                for (int i = 0; i < count; i++) {
+                    int tag = all ? succ[curr][i] : candidate(handle, guess, i);
+                    if (!linked[curr][tag]) continue;
+
+                    double nextScore = currScore + row[tag] + obs[tag];
+                    if (!nextLive[tag] || nextScore > nextScores[tag]) {
+                        nextLive[tag] = true;
+                        nextScores[tag] = nextScore;
+                        pred[ind][tag] = curr;
+                    }
+                }
+            }
+            for (int tag = 0; tag < numTags; tag++) {
+                if (nextLive[tag] && nextScores[tag] + rest[ind] < lower) nextLive[tag] = false;
+            }
+
+            double[] tmpScores = currScores; currScores = nextScores; nextScores = tmpScores;
+            boolean[] tmpLive = currLive; currLive = nextLive; nextLive = tmpLive;
+        }
+        return bestTag(currScores, currLive);
+    }
+
+    /**
+     * Slack for rounding when a bound is compared with a path score: the bound adds up the same log probabilities in a
+     * different order. A skipped state that only ties the best score is not ruled out either, since it could win the tie
+     */
+    private static double tolerance(double score) {
+        return 1e-9 * Math.max(1.0, Math.abs(score));
+    }
+
+    /**
+     * Number of tags a word with the given emission handle and suffix guess was observed with (or, if it is unknown,
+     * guessed for it)
+     */
+    private int numCandidates(int handle, int guess) {
+        if (handle >= 0) return emissions.numTags(handle);
+        return guess >= 0 ? suffixes.numTags(guess) : 0;
+    }
+
+    /**
+     * Id of the i-th observed or guessed tag of a word (see numCandidates)
+     */
+    private int candidate(int handle, int guess, int i) {
+        return handle >= 0 ? emissions.tag(handle, i) : suffixes.tag(guess, i);
+    }
+
+    /**
+     * Observation score of the i-th observed or guessed tag of a word (see numCandidates)
+     */
+    private double candidateScore(int handle, int guess, int i) {
+        return handle >= 0 ? emissions.score(handle, i) : suffixes.score(guess, i);
+    }
+
+    /**
+     * Live state with the highest score in a column (lowest id on ties), or -1 if none scores above -Double.MAX_VALUE
+     */
+    int bestTag(double[] scores, boolean[] live) {
+        double maxScore = Double.MAX_VALUE * (-1.0);
+        int maxTag = -1;
+        for (int tag = 0; tag < tags.length; tag++) {
+            if (live[tag] && scores[tag] > maxScore) {
+                maxScore = scores[tag];
+                maxTag = tag;
+            }
+        }
+        return maxTag;
+    }
+
+    /**
+     * Backtracks from maxTag in the column after the last of numWords words through pred to the tag labels
+     */
+    ArrayList<String> labels(int numWords, int maxTag, int[][] pred) {
+        ArrayList<String> labels = new ArrayList<String>(Math.max(numWords, 1));
+        if (numWords == 0) {
+            //nothing to tag, the path is just the start state
+            labels.add(tags[start]);
+            return labels;
+        }
+        if (maxTag < 0) {
+            //no tag sequence can produce the sentence: same placeholder labels as the map-based decoder
+            for (int ind = 0; ind < numWords - 1; ind++) labels.add(null);
+            labels.add("");
+            return labels;
+        }
+
+        for (int tag : path(numWords, maxTag, pred)) labels.add(tags[tag]);
+
+        return labels;
+    }
+
+    /**
+     * Backtracks from maxTag in the column after the last of numWords words through pred to the tag ids of the path
+     */
+    private static int[] path(int numWords, int maxTag, int[][] pred) {
+        int[] path = new int[numWords];
+        path[numWords - 1] = maxTag;
+        for (int ind = numWords - 1; ind > 0; ind--) path[ind - 1] = pred[ind][path[ind]];
+        return path;
+    }
+
+    /**
+     * Drops live states among the first numStates that are more than margin below the best score, then all but the
+     * width best (lower ids win ties at the cut)
+     */
+    private static void prune(double[] scores, boolean[] live, int numStates, int width, double margin,
+                              double[] scratch) {
+        double best = Double.NEGATIVE_INFINITY;
+        for (int tag = 0; tag < numStates; tag++) {
+            if (live[tag] && scores[tag] > best) best = scores[tag];
+        }
+
+        int count = 0;
+        for (int tag = 0; tag < numStates; tag++) {
+            if (!live[tag]) continue;
+            if (best - scores[tag] > margin) live[tag] = false;
+            else scratch[count++] = scores[tag];
+        }
+        if (count <= width) return;
+
+        //keep everything above the width-th best score, then fill up with states equal to it
+        Arrays.sort(scratch, 0, count);
+        double threshold = scratch[count - width];
+        int above = 0;
+        for (int i = count - width + 1; i < count; i++) {
+            if (scratch[i] > threshold) above++;
+        }
+        int ties = width - above;
+        for (int tag = 0; tag < numStates; tag++) {
+            if (!live[tag] || scores[tag] > threshold) continue;
+            if (scores[tag] == threshold && ties > 0) ties--;
+            else live[tag] = false;
+        }
+    }
+
+    /**
+     * Expands one lattice column for a known word over only the tags it was observed with, visiting predecessors in
+     * the same order as the full expansion. Returns false, leaving the column empty, if none of those tags is reachable
+     * from the live states
+     */
+    private boolean expandObserved(int handle, int[] liveTags, int numLive, double[] currScores, double[] nextScores,
+                                   boolean[] nextLive, int[] pred) {
+        boolean reached = false;
+        int numSeen = emissions.numTags(handle);
+        for (int i = 0; i < numSeen; i++) {
+            int tag = emissions.tag(handle, i);
+            double obsScore = emissions.score(handle, i);
+            reached |= relax(tag, obsScore, liveTags, numLive, currScores, nextScores, nextLive, pred);
+        }
+        return reached;
+    }
+
+    /**
+     * Expands one lattice column for an unknown word over only the candidate tags of its suffix trie node, like
+     * expandObserved. Returns false, leaving the column empty, if none of those tags is reachable
+     */
+    private boolean expandGuessed(int guess, int[] liveTags, int numLive, double[] currScores, double[] nextScores,
+                                  boolean[] nextLive, int[] pred) {
+        boolean reached = false;
+        int numGuessed = suffixes.numTags(guess);
+        for (int i = 0; i < numGuessed; i++) {
+            int tag = suffixes.tag(guess, i);
+            double obsScore = suffixes.score(guess, i);
+            reached |= relax(tag, obsScore, liveTags, numLive, currScores, nextScores, nextLive, pred);
+        }
+        return reached;
+    }
+
+    /**
+     * Enters tag into the next column from every live state linked to it, keeping the best predecessor (the first on
+     * ties), and returns whether it is live
+     */
+    private boolean relax(int tag, double obsScore, int[] liveTags, int numLive, double[] currScores,
+                          double[] nextScores, boolean[] nextLive, int[] pred) {
+        for (int live = 0; live < numLive; live++) {
+            int curr = liveTags[live];
+            if (!linked[curr][tag]) continue;
+
+            double nextScore = currScores[curr] + trans[curr][tag] + obsScore;
+            if (!nextLive[tag] || nextScore > nextScores[tag]) {
+                nextLive[tag] = true;
+                nextScores[tag] = nextScore;
+                pred[tag] = curr;
+            }
+        }
+        return nextLive[tag];
+    }
+
+    /**
+     * Fills obs with the observation score of the word with the given emission handle for every tag, using the unseen
+     * word penalty for tags the word was never observed with (every tag if the handle is -1). An unknown word with a
+     * suffix trie node (guess other than -1) gets the node's candidate scores instead of the penalty for its candidates
+     */
+    private void fillObservations(int handle, int guess, double[] obs) {
+        Arrays.fill(obs, unobserved);
+        for (int i = 0; guess >= 0 && i < suffixes.numTags(guess); i++) {
+            obs[suffixes.tag(guess, i)] = suffixes.score(guess, i);
+        }
+        if (handle < 0) return;
+
+        int numSeen = emissions.numTags(handle);
+        for (int i = 0; i < numSeen; i++) obs[emissions.tag(handle, i)] = emissions.score(handle, i);
+    }
+
+    /**
+     * Method that finds the n best tag sequences for a line, best first, each with its log score. Searches the same
+     * lattice as viterbi() over the first-order transitions, keeping the n best partial paths into every state (ties go
+     * to the lower previous tag, then its better path), and searches again over every tag, as viterbi() does, if a
+     * skipped state might be on one of the n best paths; so the first path is the one viterbi() returns for a
+     * first-order model. Gives fewer than n paths if there are fewer, none if no tag sequence can produce the line,
+     * and the single path "#" if the line has no words
+     *
+     * @param line String of words
+     * @param n number of paths wanted
+     */
+    public List<ScoredPath> nBest(String line, int n) {
+        if (n < 1) throw new IllegalArgumentException("Number of paths must be at least 1: " + n);
+        Tokenizer words = new Tokenizer();
+        words.split(line);
+        int numWords = words.size();
+        if (numWords == 0) return Collections.singletonList(new ScoredPath(labels(0, -1, null), 0.0));
+
+        int[] handles = new int[numWords], guesses = new int[numWords];
+        boolean[] pruned = new boolean[numWords];
+        double[] penalties = new double[numWords], rest = new double[numWords];
+        double[][] obs = columnObservations(words, handles, guesses, pruned);
+        List<ScoredPath> paths = nBest(numWords, obs, n, Double.NEGATIVE_INFINITY, rest, pruned, penalties);
+
+        //every path found is also a path of the full model, so the n-th best of them bounds the n-th best there
+        double lowest = paths.size() < n ? Double.NEGATIVE_INFINITY : paths.get(n - 1).getScore();
+        if (certified(numWords, handles, guesses, penalties, lowest, firstOrder, rest)) return paths;
+        obs = columnObservations(words, handles, guesses, null);
+        return nBest(numWords, obs, n, lowest - tolerance(lowest), rest, null, null);
+    }
+
+    /**
+     * Finds the n best paths through the lattice of observation scores obs (see columnObservations), dropping partial
+     * paths after word ind that cannot finish at or above lower given rest[ind]. With pruned given, also fills
+     * penalties with a bound on the states each pruned column skipped, as in penalty()
+     */
+    private List<ScoredPath> nBest(int numWords, double[][] obs, int n, double lower, double[] rest, boolean[] pruned,
+                                   double[] penalties) {
+        int numTags = tags.length;
+
+        //state (column ind, tag) is ind * numTags + tag and keeps its paths best first at state * n + rank, each
+        //pointing back to a (tag, rank) of the column before; one extra state ranks the paths of the last column
+        int numStates = (numWords + 1) * numTags + 1;
+        int[] numRanks = new int[numStates];
+        double[] scores = new double[numStates * n];
+        int[] backTag = new int[numStates * n];
+        int[] backRank = new int[numStates * n];
+        numRanks[start] = 1;
+        scores[start * n] = 0.0;
+
+        int[] liveTags = new int[numTags];
+        for (int ind = 0; ind < numWords; ind++) {
+            int numLive = 0;
+            for (int tag = 0; tag < numTags; tag++) {
+                if (numRanks[ind * numTags + tag] > 0) liveTags[numLive++] = tag;
+            }
+            if (pruned != null) {
+                double bound = Double.NEGATIVE_INFINITY;
+                for (int live = 0; pruned[ind] && live < numLive; live++) {
+                    int prev = liveTags[live];
+                    bound = Math.max(bound, scores[(ind * numTags + prev) * n] + firstOrder.out[prev]);
+                }
+                penalties[ind] = bound + unobserved;
+            }
+
+            for (int tag = 0; tag < numTags; tag++) {
+                double obsScore = obs[ind][tag];
+                if (obsScore == Double.NEGATIVE_INFINITY) continue;
+                int state = (ind + 1) * numTags + tag;
+                for (int live = 0; live < numLive; live++) {
+                    int prev = liveTags[live];
+                    if (!linked[prev][tag]) continue;
+                    int from = ind * numTags + prev;
+                    for (int rank = 0; rank < numRanks[from]; rank++) {
+                        double score = scores[from * n + rank] + trans[prev][tag] + obsScore;
+                        //later paths of prev score no higher, so they cannot get in either
+                        if (score + rest[ind] < lower) break;
+                        if (!insertPath(state, n, score, prev, rank, numRanks, scores, backTag, backRank)) break;
+                    }
+                }
+            }
+        }
+
+        //rank the paths of the last column, then backtrack each
+        int last = numStates - 1;
+        for (int tag = 0; tag < numTags; tag++) {
+            int from = numWords * numTags + tag;
+            for (int rank = 0; rank < numRanks[from]; rank++) {
+                double score = scores[from * n + rank];
+                if (!insertPath(last, n, score, tag, rank, numRanks, scores, backTag, backRank)) break;
+            }
+        }
+
+        ArrayList<ScoredPath> paths = new ArrayList<ScoredPath>(numRanks[last]);
+        for (int i = 0; i < numRanks[last]; i++) {
+            String[] path = new String[numWords];
+            int tag = backTag[last * n + i], rank = backRank[last * n + i];
+            for (int ind = numWords - 1; ind >= 0; ind--) {
+                path[ind] = tags[tag];
+                int entry = ((ind + 1) * numTags + tag) * n + rank;
+                tag = backTag[entry];
+                rank = backRank[entry];
+            }
+            paths.add(new ScoredPath(new ArrayList<String>(Arrays.asList(path)), scores[last * n + i]));
+        }
+        return paths;
+    }
+
+    /**
+     * Inserts a path with the given score, coming from path rank of tag prev, into the best-first list of a state,
+     * after any path with an equal score. Returns false, leaving the list as it is, if the list is full and the path
+     * scores no higher than its last one
+     */
+    private static boolean insertPath(int state, int n, double score, int prev, int rank, int[] numRanks,
+                                      double[] scores, int[] backTag, int[] backRank) {
+        int count = numRanks[state], offset = state * n;
+        if (count == n && score <= scores[offset + n - 1]) return false;
+
+        int pos = Math.min(count, n - 1);
+        while (pos > 0 && scores[offset + pos - 1] < score) {
+            scores[offset + pos] = scores[offset + pos - 1];
+            backTag[offset + pos] = backTag[offset + pos - 1];
+            backRank[offset + pos] = backRank[offset + pos - 1];
+            pos--;
+        }
+        scores[offset + pos] = score;
+        backTag[offset + pos] = prev;
+        backRank[offset + pos] = rank;
+        numRanks[state] = Math.min(count + 1, n);
+        return true;
+    }
+
+    /**
+     * Method that computes the posterior marginal of every tag of every word of a line with the forward-backward
+     * algorithm over the first-order transitions, summing over every tag sequence of the full model (tags a word was
+     * not observed with at the unseen word penalty). Runs in log space, adding up path scores with a streaming
+     * log-sum-exp that rescales by the running maximum, so long lines cannot underflow
+     *
+     * @param line String of words
+     */
+    public TagPosteriors posteriors(String line) {
+        Tokenizer words = new Tokenizer();
+        words.split(line);
+        int numWords = words.size();
+        int numTags = tags.length;
+        double[][] obs = columnObservations(words, new int[numWords], new int[numWords], null);
+        double[][] probs = new double[numWords][numTags];
+        if (numWords == 0) return new TagPosteriors(tags, probs, 0.0);
+
+        //forward: alpha[ind][tag] = log of the summed score of every path to tag at word ind
+        double[][] alpha = new double[numWords][numTags];
+        double[] max = new double[numTags], sum = new double[numTags];
+        for (int ind = 0; ind < numWords; ind++) {
+            Arrays.fill(max, Double.NEGATIVE_INFINITY);
+            Arrays.fill(sum, 0.0);
+            //largest term into each tag first, so the sums below only take the exp of terms that can still count
+            for (int pass = 0; pass < 2; pass++) {
+                for (int prev = 0; prev < numTags; prev++) {
+                    double prevScore = ind == 0 ? (prev == start ? 0.0 : Double.NEGATIVE_INFINITY) : alpha[ind - 1][prev];
+                    if (prevScore == Double.NEGATIVE_INFINITY) continue;
+                    for (int tag : succ[prev]) {
+                        if (obs[ind][tag] == Double.NEGATIVE_INFINITY) continue;
+                        if (pass == 0) max[tag] = Math.max(max[tag], prevScore + trans[prev][tag]);
+                        else accumulate(prevScore + trans[prev][tag], tag, max, sum);
+                    }
+                }
+            }
+            for (int tag = 0; tag < numTags; tag++) alpha[ind][tag] = max[tag] + Math.log(sum[tag]) + obs[ind][tag];
+        }
+
+        //backward: beta[ind][tag] = log of the summed score of every way to finish the line from tag at word ind
+        double[][] beta = new double[numWords][numTags];
+        for (int ind = numWords - 2; ind >= 0; ind--) {
+            Arrays.fill(max, Double.NEGATIVE_INFINITY);
+            Arrays.fill(sum, 0.0);
+            for (int pass = 0; pass < 2; pass++) {
+                for (int tag = 0; tag < numTags; tag++) {
+                    if (alpha[ind][tag] == Double.NEGATIVE_INFINITY) continue;
+                    for (int next : succ[tag]) {
+                        if (alpha[ind + 1][next] == Double.NEGATIVE_INFINITY) continue;
+                        double x = trans[tag][next] + obs[ind + 1][next] + beta[ind + 1][next];
+                        if (pass == 0) max[tag] = Math.max(max[tag], x);
+                        else accumulate(x, tag, max, sum);
+                    }
+                }
+            }
+            for (int tag = 0; tag < numTags; tag++) beta[ind][tag] = max[tag] + Math.log(sum[tag]);
+        }
+
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        Arrays.fill(sum, 0.0);
+        for (int tag = 0; tag < numTags; tag++) {
+            if (alpha[numWords - 1][tag] > Double.NEGATIVE_INFINITY) accumulate(alpha[numWords - 1][tag], 0, max, sum);
+        }
+        double logLikelihood = max[0] + Math.log(sum[0]);
+        if (logLikelihood == Double.NEGATIVE_INFINITY) return new TagPosteriors(tags, probs, logLikelihood);
+
+        for (int ind = 0; ind < numWords; ind++) {
+            for (int tag = 0; tag < numTags; tag++) {
+                if (alpha[ind][tag] > Double.NEGATIVE_INFINITY && beta[ind][tag] > Double.NEGATIVE_INFINITY) {
+                    probs[ind][tag] = Math.min(1.0, Math.exp(alpha[ind][tag] + beta[ind][tag] - logLikelihood));
+                }
+            }
+        }
+        return new TagPosteriors(tags, probs, logLikelihood);
+    }
+
+    /**
+     * Adds e^x to the running sum e^max[i] * sum[i], rescaling the sum when x is a new maximum so no term overflows
+     * or underflows all the others; the log of the total is max[i] + log(sum[i]). Terms more than e^40 times smaller than
+     * the maximum are skipped, since each is below the rounding error of the total
+     */
+    private static void accumulate(double x, int i, double[] max, double[] sum) {
+        if (x <= max[i]) {
+            if (x - max[i] > -40.0) sum[i] += Math.exp(x - max[i]);
+        }
+        else {
+            sum[i] = sum[i] * Math.exp(max[i] - x) + 1.0;
+            max[i] = x;
+        }
+    }
+
+    /**
+     * The lattice of a line over the first-order transitions, as one row per word of observation scores for the tags it
+     * expands (negative infinity for the others), filling in the emission handle and suffix guess of every word. With
+     * pruned given, it is the lattice viterbi() searches first: each word expands its observed or guessed tags that are
+     * reachable from the tags the previous word expanded, or every reachable tag if none of those is, and pruned[ind]
+     * tells whether word ind skipped any. Without it, every reachable tag is expanded
+     */
+    private double[][] columnObservations(Tokenizer words, int[] handles, int[] guesses, boolean[] pruned) {
+        int numWords = words.size();
+        int numTags = tags.length;
+        double[][] columns = new double[numWords][numTags];
+        double[] obs = new double[numTags];
+        boolean[] live = new boolean[numTags], reachable = new boolean[numTags];
+        live[start] = true;
+
+        for (int ind = 0; ind < numWords; ind++) {
+            Arrays.fill(reachable, false);
+            for (int prev = 0; prev < numTags; prev++) {
+                if (!live[prev]) continue;
+                for (int next : succ[prev]) reachable[next] = true;
+            }
+
+            double[] column = columns[ind];
+            Arrays.fill(column, Double.NEGATIVE_INFINITY);
+            CharSequence word = words.token(ind);
+            int handle = handle(word);
+            int guess = guess(word, handle);
+            handles[ind] = handle;
+            guesses[ind] = guess;
+            boolean reached = false;
+            for (int i = 0; pruned != null && i < numCandidates(handle, guess); i++) {
+                int tag = candidate(handle, guess, i);
+                if (reachable[tag]) column[tag] = candidateScore(handle, guess, i);
+                reached |= reachable[tag];
+            }
+            if (pruned != null) pruned[ind] = reached;
+            if (!reached) {
+                fillObservations(handle, guess, obs);
+                for (int tag = 0; tag < numTags; tag++) {
+                    if (reachable[tag]) column[tag] = obs[tag];
+                }
+            }
+            for (int tag = 0; tag < numTags; tag++) live[tag] = column[tag] > Double.NEGATIVE_INFINITY;
+        }
+        return columns;
+    }
+
+    /**
+     * Method that finds the tag with the highest transition probability out of the given tag, or null if there is none
+     *
+     * @param tag current tag
+     */
+    public String bestNextTag(String tag) {
+        Integer id = tagIds.get(tag);
+        if (id == null) return null;
+
+        int next = nextWords.bestNextTag(id);
+        return next < 0 ? null : tags[next];
+    }
+
+    /**
+     * Method that finds the word with the highest observation probability for the given tag, or null if there is none
+     *
+     * @param tag tag of the word
+     */
+    public String bestWord(String tag) {
+        List<String> words = nextWords(tag, 1);
+        return words.isEmpty() ? null : words.get(0);
+    }
+
+    /**
+     * Method that lists up to n of the most likely words for the given tag, best first
+     *
+     * @param tag tag of the words
+     * @param n number of words wanted, clamped to NextWordIndex.MAX_WORDS
+     */
+    public List<String> nextWords(String tag, int n) {
+        Integer id = tagIds.get(tag);
+        if (id == null) return Collections.emptyList();
+        return nextWords.topWords(id, n);
+    }
+
+    /**
+     * Method that suggests up to n next words to follow the given tag, best first
+     *
+     * @param tag tag of the last word
+     * @param n number of suggestions wanted, clamped to NextWordIndex.MAX_WORDS
+     */
+    public List<String> suggestAfter(String tag, int n) {
+        return nextWords(bestNextTag(tag), n);
+    }
+
+    /**
+     * Method that starts an incremental decoding session for a phrase that is typed one word at a time
+     */
+    public DecoderSession newSession() {
+        return new DecoderSession(this);
+    }
+
+    /**
+     * Method that suggests up to n next words for a phrase: tags the phrase, takes the most likely tag to follow its
+     * last tag, and returns that tag's most likely words, best first
+     *
+     * @param phrase String of words
+     * @param n number of suggestions wanted, clamped to NextWordIndex.MAX_WORDS
+     */
+    public List<String> suggestNext(String phrase, int n) {
+        ArrayList<String> labels = viterbi(phrase);
+        return suggestAfter(labels.get(labels.size() - 1), n);
+    }
+
+    /**
+     * Getter for the number of interned tags
+     */
+    public int numTags() {
+        return tags.length;
+    }
+
+    /**
+     * Getter for the number of interned words
+     */
+    public int numWords() {
+        return emissions.numWords();
+    }
+
+    /**
+     * Getter for the tag with the given id
+     */
+    public String tag(int id) {
+        return tags[id];
+    }
+
+    /**
+     * Getter for the id of the given tag, or -1 if the model has no such tag
+     */
+    public int tagId(String tag) {
+        Integer id = tagIds.get(tag);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Lattice buffers of one decoding call: the two score columns, live flags and per-tag scratch of first-order
+     * decoding, the predecessor rows, which grow with the longest sentence decoded so far, and the trigram lattice.
+     * viterbi() uses a new one per sentence and tagBatch() one per batch. Not thread-safe
+     */
+    private final class Scratch {
+        final double[] currScores = new double[tags.length];
+        final double[] nextScores = new double[tags.length];
+        final boolean[] currLive = new boolean[tags.length];
+        final boolean[] nextLive = new boolean[tags.length];
+        final double[] obs = new double[tags.length];
+        final int[] liveTags = new int[tags.length];
+        private int[][] pred = new int[0][];
+        private double[] beamScores = new double[0];
+        private int[] columnStart = new int[0];
+        private Lattice lattice;
+        int[] handles = new int[0]; //emission handle of each word
+        int[] guesses = new int[0]; //suffix guess of each word
+        double[] penalties = new double[0]; //bound on the states skipped at each word
+        double[] rest = new double[0]; //bound on what a path can still add after each word
+
+        /**
+         * Per-word handles, guesses and bounds for at least numWords words
+         */
+        void reserve(int numWords) {
+            if (handles.length >= numWords) return;
+            int length = Math.max(numWords, 2 * handles.length);
+            handles = new int[length];
+            guesses = new int[length];
+            penalties = new double[length];
+            rest = new double[length];
+        }
+
+        /**
+         * Predecessor rows for at least numWords words
+         */
+        int[][] pred(int numWords) {
+            if (pred.length < numWords) {
+                int[][] grown = Arrays.copyOf(pred, Math.max(numWords, 2 * pred.length));
+                for (int ind = pred.length; ind < grown.length; ind++) grown[ind] = new int[tags.length];
+                pred = grown;
+            }
+            return pred;
+        }
+
+        /**
+         * Scratch scores for finding a beam threshold over length states
+         */
+        double[] beamScores(int length) {
+            if (beamScores.length < length) beamScores = new double[length];
+            return beamScores;
+        }
+
+        /**
+         * Column start indices of a trigram lattice, at least length of them
+         */
+        int[] columnStart(int length) {
+            if (columnStart.length < length) columnStart = new int[Math.max(length, 2 * columnStart.length)];
+            return columnStart;
+        }
+
+        /**
+         * An empty trigram lattice, the one of the previous sentence if there was one
+         */
+        Lattice lattice(int numPairs, int capacity) {
+            if (lattice == null) lattice = new Lattice(numPairs, capacity);
+            else lattice.clear();
+            return lattice;
+        }
+    }
+
+    /**
+     * Upper bounds on the transition log probabilities a decoder adds, for proving that states skipped by expanding
+     * only each word's own tags cannot be on the best path: trans[prev][next] bounds every transition into next from a
+     * state whose last tag is prev (negative infinity if there is none), out and in are its row and column maxima and
+     * outAll the highest of all
+     */
+    private static final class Bounds {
+        final double[][] trans;
+        final double[] out;
+        final double[] in;
+        final double outAll;
+
+        Bounds(double[][] trans) {
+            int numTags = trans.length;
+            this.trans = trans;
+            out = new double[numTags];
+            in = new double[numTags];
+            Arrays.fill(out, Double.NEGATIVE_INFINITY);
+            Arrays.fill(in, Double.NEGATIVE_INFINITY);
+            double all = Double.NEGATIVE_INFINITY;
+            for (int prev = 0; prev < numTags; prev++) {
+                for (int next = 0; next < numTags; next++) {
+                    out[prev] = Math.max(out[prev], trans[prev][next]);
+                    in[next] = Math.max(in[next], trans[prev][next]);
+                }
+                all = Math.max(all, out[prev]);
+            }
+            outAll = all;
+        }
+    }
+
+    /**
+     * States of a trigram lattice, one column after another in flat arrays that grow as needed: the pair state, its
+     * score and the index of its predecessor state. While a column is being built, each pair state it already holds is
+     * found through slot, which is only valid for pairs whose slotColumn is the current column
+     */
+    private static class Lattice {
+        int[] pair;
+        int[] back;
+        double[] score;
+        int size = 0;
+
+        private final int[] slot; //slot[pair] = index of pair's state in the current column
+        private final int[] slotColumn; //slotColumn[pair] = column slot[pair] was set in
+        private int column = 0;
+
+        Lattice(int numPairs, int capacity) {
+            pair = new int[capacity];
+            back = new int[capacity];
+            score = new double[capacity];
+            slot = new int[numPairs];
+            slotColumn = new int[numPairs];
+        }
+
+        /**
+         * Empties the lattice for the next sentence, keeping its arrays
+         */
+        void clear() {
+            size = 0;
+        }
+
+        /**
+         * Starts a new column at the end of the lattice
+         */
+        void startColumn() {
+            if (column == Integer.MAX_VALUE) {
+                //slots of earlier columns are never read again, so column numbers can start over
+                Arrays.fill(slotColumn, 0);
+                column = 0;
+            }
+            column++;
+        }
+
+        /**
+         * Enters pair into the current column with the given score and predecessor, or improves its state there if the
+         * score is higher. The predecessor with the lowest pair id wins ties, so the result does not depend on the
+         * order the previous column's states are expanded in
+         */
+        void offer(int p, int predecessor, double s) {
+            if (slotColumn[p] == column) {
+                int state = slot[p];
+                if (s > score[state] || (s == score[state] && pair[predecessor] < pair[back[state]])) {
+                    score[state] = s;
+                    back[state] = predecessor;
+                }
+                return;
+            }
+
+            if (size == pair.length) {
+                pair = Arrays.copyOf(pair, 2 * size);
+                back = Arrays.copyOf(back, 2 * size);
+                score = Arrays.copyOf(score, 2 * size);
+            }
+            slotColumn[p] = column;
+            slot[p] = size;
+            pair[size] = p;
+            back[size] = predecessor;
+            score[size] = s;
+            size++;
+        }
+
+        /**
+         * Drops the states of the current column, which starts at from, whose flag in live is false
+         */
+        void keep(int from, boolean[] live) {
+            int kept = from;
+            for (int state = from; state < size; state++) {
+                if (!live[state - from]) continue;
+                pair[kept] = pair[state];
+                back[kept] = back[state];
+                score[kept] = score[state];
+                kept++;
+            }
+            size = kept;
+        }
+    }
+}
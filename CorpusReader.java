@@ -0,0 +1,257 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.*;
+
+/**
+ * Reads a pair of parallel corpus files, one with sentences and one with their tags, line by line in lockstep over
+ * NIO file channels with explicit UTF-8 decoding. Each pair of lines is split in place by a reused Tokenizer, so
+ * walking a corpus allocates nothing per line or per token; callers that need the lines themselves (e.g. to hand them
+ * to another thread) can still ask for them as Strings
+ */
+
+public class CorpusReader implements Closeable {
+    private static final int SCAN_BUFFER_SIZE = 1 << 16; //bytes read at a time when scanning for line ends
+
+    private final LineReader sentences;
+    private final LineReader tags;
+    private final Tokenizer words = new Tokenizer();
+    private final Tokenizer labels = new Tokenizer();
+    private long lineNumber = 0;
+    private boolean split = false; //whether the current lines have been split yet
+
+    /**
+     * Opens both files, closing the first again if the second cannot be opened. Files are opened through
+     * FileInputStream so a missing file is reported the way FileReader reports it
+     *
+     * @param sentFile file of sentences, one per line
+     * @param tagFile file of tags, one line per sentence
+     */
+    public CorpusReader(String sentFile, String tagFile) throws IOException {
+        sentences = new LineReader(new FileInputStream(sentFile).getChannel());
+        try {
+            tags = new LineReader(new FileInputStream(tagFile).getChannel());
+        }
+        catch (IOException e) {
+            sentences.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads one chunk of a pair of corpus files split by split(), over channels that the readers of the other chunks
+     * share. Closing the reader leaves the channels open
+     *
+     * @param sentFile channel of the file of sentences
+     * @param tagFile channel of the file of tags
+     * @param chunk the chunk's first line number and byte ranges, as returned by split()
+     */
+    public CorpusReader(FileChannel sentFile, FileChannel tagFile, long[] chunk) {
+        sentences = LineReader.range(sentFile, chunk[1], chunk[2]);
+        tags = LineReader.range(tagFile, chunk[3], chunk[4]);
+        lineNumber = chunk[0];
+    }
+
+    /**
+     * Splits a pair of parallel corpus files into at most numChunks chunks of whole lines, so that several threads can
+     * each read and split their own chunk. Lines are paired by number as next() pairs them, so a chunk covers the same
+     * lines of both files even where they are of different lengths. The files are only scanned for line ends, one byte
+     * range of each file per task on the given executor: first to count the line ends of each range and find the first
+     * line starting in each range of the sentence file, then to find where each of those lines starts in the tag file.
+     * Returns one array per non-empty chunk, in file order: the number of lines before it, then its start and end
+     * positions in the sentence file and in the tag file
+     *
+     * @param sentFile channel of the file of sentences
+     * @param tagFile channel of the file of tags
+     * @param numChunks number of byte ranges to split the sentence file into
+     * @param executor executor to scan the byte ranges on
+     */
+    public static ArrayList<long[]> split(FileChannel sentFile, FileChannel tagFile, int numChunks,
+                                          ExecutorService executor) throws IOException, InterruptedException {
+        long sentSize = sentFile.size(), tagSize = tagFile.size();
+        ArrayList<Future<long[]>> sentEnds = new ArrayList<Future<long[]>>();
+        ArrayList<Future<long[]>> sentStarts = new ArrayList<Future<long[]>>();
+        ArrayList<Future<long[]>> tagEnds = new ArrayList<Future<long[]>>();
+        for (int i = 0; i < numChunks; i++) {
+            long sentFrom = sentSize * i / numChunks, sentTo = sentSize * (i + 1) / numChunks;
+            long tagFrom = tagSize * i / numChunks, tagTo = tagSize * (i + 1) / numChunks;
+            sentEnds.add(executor.submit(() -> scan(sentFile, sentFrom, sentTo, Long.MAX_VALUE)));
+            tagEnds.add(executor.submit(() -> scan(tagFile, tagFrom, tagTo, Long.MAX_VALUE)));
+            //a range's first line starts after the first line end at or after the byte before the range
+            sentStarts.add(sentFrom == 0 ? null : executor.submit(() -> scan(sentFile, sentFrom - 1, sentSize, 1)));
+        }
+
+        //start and number of the first line of each chunk, and the number of line ends before each tag file range
+        long[] sentStart = new long[numChunks + 1], firstLine = new long[numChunks];
+        long[] tagLinesBefore = new long[numChunks + 1];
+        long linesBefore = 0;
+        for (int i = 0; i < numChunks; i++) {
+            long sentFrom = sentSize * i / numChunks;
+            if (sentStarts.get(i) != null) {
+                long[] start = get(sentStarts.get(i));
+                sentStart[i] = start[0] == 0 ? sentSize : start[1];
+                firstLine[i] = linesBefore + (sentStart[i] > sentFrom ? 1 : 0);
+            }
+            linesBefore += get(sentEnds.get(i))[0];
+            tagLinesBefore[i + 1] = tagLinesBefore[i] + get(tagEnds.get(i))[0];
+        }
+        sentStart[numChunks] = sentSize;
+
+        //find where each chunk's first line starts in the tag file, scanning on from the range its line end is in
+        ArrayList<Future<long[]>> tagStarts = new ArrayList<Future<long[]>>();
+        for (int i = 0; i < numChunks; i++) {
+            long line = firstLine[i];
+            int range = 0;
+            while (range < numChunks && tagLinesBefore[range + 1] < line) range++;
+            if (line == 0 || range == numChunks || sentStart[i] == sentStart[i + 1]) {
+                tagStarts.add(null);
+                continue;
+            }
+            long tagFrom = tagSize * range / numChunks, skip = line - tagLinesBefore[range];
+            tagStarts.add(executor.submit(() -> scan(tagFile, tagFrom, tagSize, skip)));
+        }
+        long[] tagStart = new long[numChunks + 1];
+        for (int i = 0; i < numChunks; i++) {
+            //with fewer lines than that, the tag file has run out before the chunk
+            if (tagStarts.get(i) != null) tagStart[i] = get(tagStarts.get(i))[1];
+            else tagStart[i] = firstLine[i] == 0 ? 0 : tagSize;
+        }
+        tagStart[numChunks] = tagSize;
+
+        ArrayList<long[]> chunks = new ArrayList<long[]>();
+        for (int i = 0; i < numChunks; i++) {
+            if (sentStart[i] == sentStart[i + 1]) continue;
+            //a chunk ends where the next non-empty one starts
+            int next = i + 1;
+            while (next < numChunks && sentStart[next] == sentStart[next + 1]) next++;
+            chunks.add(new long[]{firstLine[i], sentStart[i], sentStart[next], tagStart[i], tagStart[next]});
+        }
+        return chunks;
+    }
+
+    /**
+     * Reads the next line of both files
+     *
+     * @return whether both files had another line
+     */
+    public boolean next() throws IOException {
+        if (!sentences.next() || !tags.next()) return false;
+        split = false;
+        lineNumber++;
+        return true;
+    }
+
+    /**
+     * Getter for the words of the current sentence, valid until the next call to next()
+     */
+    public Tokenizer words() {
+        splitLines();
+        return words;
+    }
+
+    /**
+     * Getter for the tags of the current sentence, valid until the next call to next()
+     */
+    public Tokenizer tags() {
+        splitLines();
+        return labels;
+    }
+
+    /**
+     * Splits the current lines the first time their tokens are asked for, so callers that only want the lines as
+     * Strings do not pay for it
+     */
+    private void splitLines() {
+        if (split) return;
+        words.split(sentences.chars(), sentences.length());
+        labels.split(tags.chars(), tags.length());
+        split = true;
+    }
+
+    /**
+     * The current sentence line as a new String
+     */
+    public String sentenceLine() {
+        return sentences.line();
+    }
+
+    /**
+     * The current tag line as a new String
+     */
+    public String tagLine() {
+        return tags.line();
+    }
+
+    /**
+     * Getter for the number of the current line, starting at 1
+     */
+    public long lineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Scans the bytes from position from up to position to of a file for line ends, which are \n and \r not followed
+     * by \n, as LineReader splits lines. Stops after limit line ends. Returns the number of line ends found and the
+     * position after the last of them (-1 if none)
+     */
+    private static long[] scan(FileChannel file, long from, long to, long limit) throws IOException {
+        long size = file.size();
+        long end = Math.min(size, to + 1); //one byte past the range, to tell a \r that ends a line from a \r\n
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        byte[] bytes = buffer.array();
+        long count = 0, after = -1, carriageReturn = -1; //position of a \r whose next byte is not read yet
+        long pos = from;
+        boolean done = false;
+        while (!done && pos < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(bytes.length, end - pos));
+            int read = file.read(buffer, pos);
+            if (read <= 0) break;
+            for (int i = 0; i < read; i++, pos++) {
+                if (carriageReturn >= 0 && bytes[i] != '\n') {
+                    count++;
+                    after = carriageReturn + 1;
+                }
+                carriageReturn = -1;
+                if (count == limit || pos >= to) {
+                    done = true;
+                    break;
+                }
+                if (bytes[i] == '\n') {
+                    count++;
+                    after = pos + 1;
+                }
+                else if (bytes[i] == '\r') carriageReturn = pos;
+            }
+        }
+        //a \r at the very end of the file
+        if (carriageReturn >= 0 && count < limit) {
+            count++;
+            after = carriageReturn + 1;
+        }
+        return new long[]{count, after};
+    }
+
+    /**
+     * Result of a scan, with a failed scan's IOException rethrown as itself
+     */
+    private static long[] get(Future<long[]> scan) throws IOException, InterruptedException {
+        try {
+            return scan.get();
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    public void close() throws IOException {
+        try {
+            sentences.close();
+        }
+        finally {
+            tags.close();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of decoded tag sequences for workloads with many repeated sentences (boilerplate, headlines, short
+ * commands). Entries are keyed on the sentence's token sequence, so lines that split into the same words share an
+ * entry, and remember the model they were decoded with: a lookup against any other model is a miss, so a retrained or
+ * reloaded model never sees stale tags. The cache is split into segments with their own lock and LRU order, so
+ * concurrent lookups only contend when they land in the same segment
+ */
+
+public class DecodeCache {
+    private static final int MAX_SEGMENTS = 16;
+    private static final String NO_WORDS = "\n"; //key of lines with no words, which no token sequence can produce
+
+    private final Segment[] segments;
+    private final int mask; //number of segments - 1
+    private final int maxEntries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates an empty cache
+     *
+     * @param maxEntries maximum number of sentences kept, split evenly across the segments
+     */
+    public DecodeCache(int maxEntries) {
+        if (maxEntries < 1) throw new IllegalArgumentException("Cache size must be at least 1: " + maxEntries);
+        this.maxEntries = maxEntries;
+
+        int numSegments = Math.min(MAX_SEGMENTS, Integer.highestOneBit(maxEntries));
+        segments = new Segment[numSegments];
+        for (int i = 0; i < numSegments; i++) {
+            segments[i] = new Segment(maxEntries / numSegments + (i < maxEntries % numSegments ? 1 : 0));
+        }
+        mask = numSegments - 1;
+    }
+
+    /**
+     * Method that returns the tags of a line as decoded by model.viterbi(), from the cache if the same token sequence
+     * was already decoded with this model. The caller gets its own copy of the list
+     *
+     * @param model model to decode with
+     * @param line String of words
+     */
+    public ArrayList<String> tag(CompiledModel model, String line) {
+        String key = key(line);
+        int hash = key.hashCode();
+        Segment segment = segments[(hash ^ (hash >>> 16)) & mask];
+
+        Entry entry;
+        synchronized (segment) {
+            entry = segment.get(key);
+        }
+        if (entry != null && entry.model == model) {
+            hits.increment();
+            return new ArrayList<String>(Arrays.asList(entry.tags));
+        }
+
+        //decode outside the lock so other lookups in this segment are not held up
+        misses.increment();
+        ArrayList<String> labels = model.viterbi(line);
+        Entry decoded = new Entry(model, labels.toArray(new String[0]));
+        synchronized (segment) {
+            segment.put(key, decoded);
+        }
+        return labels;
+    }
+
+    /**
+     * Removes every entry, e.g. to free memory when the model is replaced (the statistics are kept)
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * Getter for the number of lookups answered from the cache
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * Getter for the number of lookups that had to decode
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * Getter for the number of entries dropped to stay within the size limit
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Getter for the number of cached sentences
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Summary of the cache's size and hit/miss statistics
+     */
+    public String stats() {
+        long numHits = hits(), numLookups = numHits + misses();
+        return "decode cache: " + size() + "/" + maxEntries + " entries, " + numHits + " hits, " + misses() + " misses ("
+                + (numLookups == 0 ? 0.0 : Math.round(1000.0 * numHits / numLookups) / 10.0) + "% hit rate), "
+                + evictions() + " evictions";
+    }
+
+    /**
+     * Normalized token sequence of a line: the words line.split("\\s") would give, joined by single spaces. Each
+     * whitespace character becomes a space and trailing whitespace is dropped, without allocating for lines that are
+     * already normalized
+     */
+    static String key(String line) {
+        int end = line.length();
+        while (end > 0 && Tokenizer.isSpace(line.charAt(end - 1))) end--;
+        if (end == 0) return line.isEmpty() ? line : NO_WORDS;
+
+        boolean normalized = end == line.length();
+        for (int i = 0; i < end && normalized; i++) {
+            char c = line.charAt(i);
+            if (c != ' ' && Tokenizer.isSpace(c)) normalized = false;
+        }
+        if (normalized) return line;
+
+        char[] chars = new char[end];
+        for (int i = 0; i < end; i++) chars[i] = Tokenizer.isSpace(line.charAt(i)) ? ' ' : line.charAt(i);
+        return new String(chars);
+    }
+
+    /**
+     * Tags of one sentence and the model they were decoded with
+     */
+    private static class Entry {
+        final CompiledModel model;
+        final String[] tags;
+
+        Entry(CompiledModel model, String[] tags) {
+            this.model = model;
+            this.tags = tags;
+        }
+    }
+
+    /**
+     * One lock's worth of the cache: a LinkedHashMap in access order that drops its least recently used entry when it
+     * grows past its capacity
+     */
+    private class Segment extends LinkedHashMap<String, Entry> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() <= capacity) return false;
+            evictions.increment();
+            return true;
+        }
+    }
+}
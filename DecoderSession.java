@@ -0,0 +1,159 @@
+import java.util.*;
+
+/**
+ * Incremental Viterbi decoding of a phrase typed one word at a time, e.g. for keystroke-by-keystroke next-word
+ * suggestions. The session keeps one lattice column (scores, live states and predecessors) per word, so appending a
+ * word costs a single lattice step, undoing one drops the last column, and a next-word suggestion only needs the last
+ * column instead of decoding the whole phrase again. Columns that are undone are reused by later appends. Like
+ * viterbi(), the session checks whether a state its steps skipped might be on the best path, and only then decodes the
+ * phrase again over every tag to answer lastTag() and bestPath().
+ *
+ * A session belongs to one user and is not thread-safe; the model it decodes against is shared
+ */
+
+public class DecoderSession {
+    private final CompiledModel model;
+    private final int numTags;
+
+    //column 0 is the start column, column i the one after the i-th word; entries past numWords are spare
+    private double[][] scores = new double[8][];
+    private boolean[][] live = new boolean[8][];
+    private int[][] pred = new int[8][]; //pred[i] = predecessors in column i + 1, indexed as in viterbi()
+    private String[] words = new String[8];
+    private int[] handles = new int[8]; //emission handle of each word
+    private int[] guesses = new int[8]; //suffix guess of each word
+    private double[] penalties = new double[8]; //bound on the states each step skipped
+    private int numWords = 0;
+
+    private final int[] liveTags; //scratch for the lattice step
+    private final double[] obs; //scratch for the lattice step
+
+    /**
+     * Starts an empty session against the given model
+     *
+     * @param model model to decode against
+     */
+    public DecoderSession(CompiledModel model) {
+        this.model = model;
+        numTags = model.numTags();
+        liveTags = new int[numTags];
+        obs = new double[numTags];
+
+        scores[0] = new double[numTags];
+        live[0] = new boolean[numTags];
+        model.startColumn(scores[0], live[0]);
+    }
+
+    /**
+     * Appends one word to the phrase, with one lattice step
+     *
+     * @param word next word of the phrase
+     */
+    public void append(String word) {
+        int next = numWords + 1;
+        if (next == scores.length) {
+            scores = Arrays.copyOf(scores, 2 * next);
+            live = Arrays.copyOf(live, 2 * next);
+            pred = Arrays.copyOf(pred, 2 * next);
+            words = Arrays.copyOf(words, 2 * next);
+            handles = Arrays.copyOf(handles, 2 * next);
+            guesses = Arrays.copyOf(guesses, 2 * next);
+            penalties = Arrays.copyOf(penalties, 2 * next);
+        }
+        if (scores[next] == null) {
+            scores[next] = new double[numTags];
+            live[next] = new boolean[numTags];
+            pred[numWords] = new int[numTags];
+        }
+
+        int handle = model.handle(word);
+        int guess = model.guess(word, handle);
+        penalties[numWords] = model.step(handle, guess, scores[numWords], live[numWords], scores[next], live[next],
+                pred[numWords], liveTags, obs);
+        handles[numWords] = handle;
+        guesses[numWords] = guess;
+        words[numWords] = word;
+        numWords = next;
+    }
+
+    /**
+     * Removes the last word of the phrase, if any
+     *
+     * @return the removed word, or null if the phrase was empty
+     */
+    public String undo() {
+        if (numWords == 0) return null;
+        numWords--;
+        String word = words[numWords];
+        words[numWords] = null;
+        return word;
+    }
+
+    /**
+     * Removes every word of the phrase
+     */
+    public void clear() {
+        while (numWords > 0) undo();
+    }
+
+    /**
+     * Getter for the number of words in the phrase
+     */
+    public int size() {
+        return numWords;
+    }
+
+    /**
+     * Getter for the words of the phrase
+     */
+    public List<String> words() {
+        return Collections.unmodifiableList(Arrays.asList(Arrays.copyOf(words, numWords)));
+    }
+
+    /**
+     * Tag of the best state after the last word (what viterbi() would give the last word), "#" if the phrase is empty,
+     * or null if it cannot be tagged
+     */
+    public String lastTag() {
+        int best = model.bestTag(scores[numWords], live[numWords]);
+        int[] path = exactPath(best);
+        if (path != null) return path.length == 0 ? null : model.tag(path[numWords - 1]);
+        return best < 0 ? null : model.tag(best);
+    }
+
+    /**
+     * Best tag sequence for the phrase so far, the same as viterbi() gives for the words joined by spaces
+     */
+    public ArrayList<String> bestPath() {
+        if (numWords == 0) return new ArrayList<String>();
+        int best = model.bestTag(scores[numWords], live[numWords]);
+        int[] path = exactPath(best);
+        if (path == null) return model.labels(numWords, best, pred);
+        if (path.length == 0) return model.labels(numWords, -1, null);
+
+        ArrayList<String> labels = new ArrayList<String>(numWords);
+        for (int tag : path) labels.add(model.tag(tag));
+        return labels;
+    }
+
+    /**
+     * The phrase decoded again over every tag (see CompiledModel.exactPath) if the steps may have skipped a state on
+     * its best path, otherwise null, given the best state after the last word
+     */
+    private int[] exactPath(int best) {
+        if (numWords == 0) return null;
+        double bestScore = best < 0 ? Double.NEGATIVE_INFINITY : scores[numWords][best];
+        return model.exactPath(numWords, handles, guesses, penalties, bestScore);
+    }
+
+    /**
+     * Up to n suggested next words for the phrase so far (or for the start of a sentence), best first, from the last
+     * column only
+     *
+     * @param n number of suggestions wanted, clamped to NextWordIndex.MAX_WORDS
+     */
+    public List<String> suggestNext(int n) {
+        String tag = lastTag();
+        return tag == null ? Collections.<String>emptyList() : model.suggestAfter(tag, n);
+    }
+}
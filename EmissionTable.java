@@ -0,0 +1,48 @@
+/**
+ * Observation table of a compiled model, keyed by word: for every word it holds the ids of the tags the word was
+ * observed with, in ascending order, and the matching observation log probabilities. Words are addressed through an
+ * int handle returned by find() or by iterating with first() and next()
+ */
+
+public interface EmissionTable {
+    /**
+     * Getter for the number of words in the table
+     */
+    int numWords();
+
+    /**
+     * Handle of the given word, or -1 if the word was never observed. The word may be a String or any CharSequence that
+     * hashes and compares like the equal String, such as a Tokenizer token, so looking up a token needs no String
+     */
+    int find(CharSequence word);
+
+    /**
+     * Handle of the first word in the table, or -1 if the table is empty
+     */
+    int first();
+
+    /**
+     * Handle of the word after the given one, or -1 if it is the last word
+     */
+    int next(int handle);
+
+    /**
+     * The word with the given handle
+     */
+    String word(int handle);
+
+    /**
+     * Number of tags the word with the given handle was observed with
+     */
+    int numTags(int handle);
+
+    /**
+     * Id of the i-th tag the word with the given handle was observed with
+     */
+    int tag(int handle, int i);
+
+    /**
+     * Observation log probability of the word with the given handle for its i-th tag
+     */
+    double score(int handle, int i);
+}
@@ -0,0 +1,133 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Emission table held on the Java heap: words are interned to dense ids, which are also the handles, and each word
+ * keeps its own arrays of tag ids and observation log probabilities
+ */
+
+public class HeapEmissionTable implements EmissionTable {
+    private final String[] words; //word for each word id
+    private final HashMap<String, Integer> wordIds; //word -> word id
+    private final ConcurrentHashMap<String, Integer> addedIds; //word -> word id for words added by patch()
+    private final int[][] obsTags; //obsTags[word] = ids of tags the word was observed with, ascending
+    private final double[][] obsScores; //obsScores[word][i] = observation log probability for obsTags[word][i]
+
+    public HeapEmissionTable(String[] words, HashMap<String, Integer> wordIds, int[][] obsTags, double[][] obsScores) {
+        this(words, wordIds, new ConcurrentHashMap<String, Integer>(), obsTags, obsScores);
+    }
+
+    private HeapEmissionTable(String[] words, HashMap<String, Integer> wordIds, ConcurrentHashMap<String, Integer> addedIds,
+                              int[][] obsTags, double[][] obsScores) {
+        this.words = words;
+        this.wordIds = wordIds;
+        this.addedIds = addedIds;
+        this.obsTags = obsTags;
+        this.obsScores = obsScores;
+    }
+
+    /**
+     * Returns a copy of this table with the entries of the given words replaced (or added, for words it does not have
+     * yet), leaving this table unchanged. Unchanged entries are shared and the vocabulary map is not copied: new words
+     * get the next free ids in a map of added words that successive patches of the newest table append to, which older
+     * tables ignore since the ids lie past their own words
+     *
+     * @param changedWords words to replace or add
+     * @param changedTags ids of tags each word was observed with, ascending
+     * @param changedScores observation log probabilities for changedTags
+     */
+    public HeapEmissionTable patch(String[] changedWords, int[][] changedTags, double[][] changedScores) {
+        int numAdded = 0;
+        for (String word : changedWords) {
+            if (find(word) < 0) numAdded++;
+        }
+
+        String[] words = Arrays.copyOf(this.words, this.words.length + numAdded);
+        int[][] obsTags = Arrays.copyOf(this.obsTags, words.length);
+        double[][] obsScores = Arrays.copyOf(this.obsScores, words.length);
+
+        //only the newest table of a line of patches may append to the shared map, otherwise ids would clash
+        ConcurrentHashMap<String, Integer> addedIds = this.addedIds;
+        if (numAdded > 0 && wordIds.size() + addedIds.size() != this.words.length) {
+            addedIds = new ConcurrentHashMap<String, Integer>();
+            for (HashMap.Entry<String, Integer> word : this.addedIds.entrySet()) {
+                if (word.getValue() < this.words.length) addedIds.put(word.getKey(), word.getValue());
+            }
+        }
+
+        int next = this.words.length;
+        for (int i = 0; i < changedWords.length; i++) {
+            int id = find(changedWords[i]);
+            if (id < 0) {
+                id = next++;
+                words[id] = changedWords[i];
+                addedIds.put(changedWords[i], id);
+            }
+            obsTags[id] = changedTags[i];
+            obsScores[id] = changedScores[i];
+        }
+
+        return new HeapEmissionTable(words, wordIds, addedIds, obsTags, obsScores);
+    }
+
+    /**
+     * Copies any emission table (e.g. a memory-mapped one) onto the heap
+     *
+     * @param table table to copy
+     */
+    public static HeapEmissionTable copyOf(EmissionTable table) {
+        int numWords = table.numWords();
+        String[] words = new String[numWords];
+        HashMap<String, Integer> wordIds = new HashMap<String, Integer>(2 * numWords);
+        int[][] obsTags = new int[numWords][];
+        double[][] obsScores = new double[numWords][];
+
+        int id = 0;
+        for (int handle = table.first(); handle >= 0; handle = table.next(handle), id++) {
+            words[id] = table.word(handle);
+            wordIds.put(words[id], id);
+            obsTags[id] = new int[table.numTags(handle)];
+            obsScores[id] = new double[obsTags[id].length];
+            for (int i = 0; i < obsTags[id].length; i++) {
+                obsTags[id][i] = table.tag(handle, i);
+                obsScores[id][i] = table.score(handle, i);
+            }
+        }
+
+        return new HeapEmissionTable(words, wordIds, obsTags, obsScores);
+    }
+
+    public int numWords() {
+        return words.length;
+    }
+
+    public int find(CharSequence word) {
+        Integer id = wordIds.get(word);
+        if (id == null && !addedIds.isEmpty()) id = addedIds.get(word);
+        return id == null || id >= words.length ? -1 : id;
+    }
+
+    public int first() {
+        return words.length > 0 ? 0 : -1;
+    }
+
+    public int next(int handle) {
+        return handle + 1 < words.length ? handle + 1 : -1;
+    }
+
+    public String word(int handle) {
+        return words[handle];
+    }
+
+    public int numTags(int handle) {
+        return obsTags[handle].length;
+    }
+
+    public int tag(int handle, int i) {
+        return obsTags[handle][i];
+    }
+
+    public double score(int handle, int i) {
+        return obsScores[handle][i];
+    }
+}
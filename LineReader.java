@@ -0,0 +1,158 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.*;
+import java.util.Arrays;
+
+/**
+ * Line reader over a byte channel with explicit UTF-8 decoding (malformed input is replaced, as FileReader does for
+ * its charset). Bytes are decoded a buffer at a time and each line is assembled in a reused char buffer, so reading a
+ * line allocates nothing unless it is asked for as a String. Lines end at \n, \r or \r\n, as for
+ * BufferedReader.readLine()
+ */
+
+public class LineReader implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final ReadableByteChannel channel;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+    private boolean eof = false; //no more bytes in the channel
+    private boolean done = false; //every byte decoded and the decoder flushed
+    private boolean skipLF = false; //last line ended with \r, so a \n right after it belongs to it
+
+    private char[] line = new char[256]; //characters of the current line
+    private int length = 0;
+
+    /**
+     * Reads lines from the given channel, which is closed along with this reader
+     */
+    public LineReader(ReadableByteChannel channel) {
+        this.channel = channel;
+        chars.flip(); //nothing decoded yet
+    }
+
+    /**
+     * Reads the lines in bytes start (inclusive) to end (exclusive) of a file, which must start at the beginning of a
+     * line. The bytes are read with positional reads, so readers of different parts of one file can share its channel
+     * across threads; closing the reader leaves the channel open
+     *
+     * @param file channel of the file to read
+     * @param start position of the first byte to read
+     * @param end position after the last byte to read
+     */
+    public static LineReader range(FileChannel file, long start, long end) {
+        return new LineReader(new ReadableByteChannel() {
+            private long position = start;
+
+            public int read(ByteBuffer dst) throws IOException {
+                if (position >= end) return -1;
+                ByteBuffer window = dst;
+                if (end - position < dst.remaining()) {
+                    window = dst.duplicate();
+                    window.limit(dst.position() + (int) (end - position));
+                }
+                int read = file.read(window, position);
+                if (read < 0) return -1;
+                if (window != dst) dst.position(window.position());
+                position += read;
+                return read;
+            }
+
+            public boolean isOpen() {
+                return file.isOpen();
+            }
+
+            public void close() {
+            }
+        });
+    }
+
+    /**
+     * Reads the next line into the line buffer
+     *
+     * @return whether there was another line
+     */
+    public boolean next() throws IOException {
+        length = 0;
+        boolean any = false;
+        while (true) {
+            if (!chars.hasRemaining() && !fill()) return any;
+
+            char[] buffer = chars.array();
+            int pos = chars.position(), limit = chars.limit();
+            if (skipLF) {
+                skipLF = false;
+                if (buffer[pos] == '\n') {
+                    chars.position(pos + 1);
+                    continue;
+                }
+            }
+
+            int start = pos;
+            while (pos < limit && buffer[pos] != '\n' && buffer[pos] != '\r') pos++;
+            append(buffer, start, pos);
+            any = true;
+            if (pos < limit) {
+                skipLF = buffer[pos] == '\r';
+                chars.position(pos + 1);
+                return true;
+            }
+            chars.position(pos);
+        }
+    }
+
+    /**
+     * Getter for the buffer holding the current line, valid until the next call to next()
+     */
+    public char[] chars() {
+        return line;
+    }
+
+    /**
+     * Getter for the length of the current line
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * The current line as a new String
+     */
+    public String line() {
+        return new String(line, 0, length);
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Decodes the next buffer of characters, returning false once the input is used up
+     */
+    private boolean fill() throws IOException {
+        chars.clear();
+        while (chars.position() == 0 && !done) {
+            if (!eof && channel.read(bytes) < 0) eof = true;
+            bytes.flip();
+            decoder.decode(bytes, chars, eof);
+            bytes.compact();
+            if (eof && bytes.position() == 0) {
+                decoder.flush(chars);
+                done = true;
+            }
+        }
+        chars.flip();
+        return chars.hasRemaining();
+    }
+
+    private void append(char[] buffer, int start, int end) {
+        int count = end - start;
+        if (length + count > line.length) line = Arrays.copyOf(line, Math.max(length + count, 2 * line.length));
+        System.arraycopy(buffer, start, line, length, count);
+        length += count;
+    }
+}
@@ -0,0 +1,211 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Emission table read directly out of a (memory-mapped) byte buffer, so the observation data of a very large
+ * vocabulary stays off the Java heap and several JVMs mapping the same model file share its pages.
+ *
+ * Layout, big-endian: number of words, number of hash slots (a power of two), the slots as (word hash, entry offset)
+ * pairs with offset -1 for an empty slot, then one entry per word: UTF-8 length, UTF-8 bytes, number of tags, the tag
+ * ids in ascending order and their observation log probabilities. A handle is the position of an entry in the buffer
+ */
+
+public class MappedEmissionTable implements EmissionTable {
+    private final ByteBuffer buffer; //table section, starting at index 0
+    private final int numWords;
+    private final int mask; //number of slots - 1
+    private final int entries; //position of the first entry
+    private final int end; //position just past the last entry
+
+    /**
+     * Wraps a table written by write(), starting at the buffer's current position. Only absolute reads are used
+     * afterwards, so the table can be shared by any number of decoding threads
+     *
+     * @param in buffer positioned at the start of the table
+     */
+    public MappedEmissionTable(ByteBuffer in) {
+        buffer = in.slice();
+        numWords = buffer.getInt(0);
+        mask = buffer.getInt(4) - 1;
+        entries = 12 + 8 * (mask + 1);
+        end = entries + buffer.getInt(8);
+    }
+
+    /**
+     * Writes an emission table in the layout read by this class
+     *
+     * @param table table to write
+     * @param out output to write to
+     */
+    public static void write(EmissionTable table, DataOutputStream out) throws IOException {
+        int numWords = table.numWords();
+        int numSlots = Integer.highestOneBit(Math.max(2 * numWords, 1) - 1) << 1;
+        if (numSlots <= 0) numSlots = 1;
+
+        //lay out the entries first so the slots can point at them
+        byte[][] bytes = new byte[numWords][];
+        int[] hashes = new int[numWords];
+        int[] offsets = new int[numWords];
+        int[] handles = new int[numWords];
+        int offset = 0;
+        int id = 0;
+        for (int handle = table.first(); handle >= 0; handle = table.next(handle), id++) {
+            String word = table.word(handle);
+            bytes[id] = word.getBytes(StandardCharsets.UTF_8);
+            hashes[id] = word.hashCode();
+            offsets[id] = offset;
+            handles[id] = handle;
+            offset += 8 + bytes[id].length + 12 * table.numTags(handle);
+        }
+
+        //open addressing with linear probing on the word's String hash
+        int[] slotHashes = new int[numSlots];
+        int[] slotOffsets = new int[numSlots];
+        Arrays.fill(slotOffsets, -1);
+        for (id = 0; id < numWords; id++) {
+            int slot = spread(hashes[id]) & (numSlots - 1);
+            while (slotOffsets[slot] >= 0) slot = (slot + 1) & (numSlots - 1);
+            slotHashes[slot] = hashes[id];
+            slotOffsets[slot] = offsets[id];
+        }
+
+        out.writeInt(numWords);
+        out.writeInt(numSlots);
+        out.writeInt(offset);
+        for (int slot = 0; slot < numSlots; slot++) {
+            out.writeInt(slotHashes[slot]);
+            out.writeInt(slotOffsets[slot]);
+        }
+        for (id = 0; id < numWords; id++) {
+            int handle = handles[id];
+            int numTags = table.numTags(handle);
+            out.writeInt(bytes[id].length);
+            out.write(bytes[id]);
+            out.writeInt(numTags);
+            for (int i = 0; i < numTags; i++) out.writeInt(table.tag(handle, i));
+            for (int i = 0; i < numTags; i++) out.writeDouble(table.score(handle, i));
+        }
+    }
+
+    /**
+     * Method that walks every slot and entry of the table once, so a corrupt file is rejected when it is loaded rather
+     * than on whichever lookup first reaches the bad bytes
+     *
+     * @param numTags number of tags of the model the table belongs to
+     */
+    public void check(int numTags) throws IOException {
+        if (numWords < 0 || mask < 0 || (mask & (mask + 1)) != 0 || entries < 0 || end < entries
+                || end > buffer.limit() || numWords > (end - entries) / 8) {
+            throw new IOException("Corrupt observation table header");
+        }
+
+        //every entry must fit before the end of the table, and hold only known tag ids
+        int[] offsets = new int[numWords];
+        int count = 0;
+        for (int handle = first(); handle >= 0; handle = next(handle), count++) {
+            if (count == numWords) throw new IOException("Corrupt observation table: too many words");
+            offsets[count] = handle - entries;
+            if (handle > end - 8) throw new IOException("Corrupt observation table: " + handle);
+            int length = buffer.getInt(handle);
+            if (length < 0 || length > end - handle - 8) throw new IOException("Corrupt observation table: " + handle);
+            int numObserved = numTags(handle);
+            if (numObserved < 0 || numObserved > (end - handle - 8 - length) / 12) {
+                throw new IOException("Corrupt observation table: " + handle);
+            }
+            for (int i = 0; i < numObserved; i++) {
+                int tag = tag(handle, i);
+                if (tag < 0 || tag >= numTags) throw new IOException("Corrupt observation table: " + handle);
+            }
+        }
+        if (count != numWords) throw new IOException("Corrupt observation table: " + count + " words, not " + numWords);
+
+        //every slot must be empty or point at the start of an entry (offsets are ascending)
+        for (int slot = 0; slot <= mask; slot++) {
+            int offset = buffer.getInt(12 + 8 * slot + 4);
+            if (offset != -1 && Arrays.binarySearch(offsets, offset) < 0) {
+                throw new IOException("Corrupt observation table: slot " + slot);
+            }
+        }
+    }
+
+    /**
+     * Number of bytes of the table section starting at the given buffer position
+     */
+    public static int length(ByteBuffer in) {
+        int start = in.position();
+        return 12 + 8 * in.getInt(start + 4) + in.getInt(start + 8);
+    }
+
+    public int numWords() {
+        return numWords;
+    }
+
+    public int find(CharSequence word) {
+        int hash = word.hashCode();
+        for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+            int offset = buffer.getInt(12 + 8 * slot + 4);
+            if (offset < 0) return -1;
+            if (buffer.getInt(12 + 8 * slot) == hash && matches(entries + offset, word)) return entries + offset;
+        }
+    }
+
+    public int first() {
+        return numWords > 0 ? entries : -1;
+    }
+
+    public int next(int handle) {
+        int length = buffer.getInt(handle);
+        int next = handle + 8 + length + 12 * buffer.getInt(handle + 4 + length);
+        return next < end ? next : -1;
+    }
+
+    public String word(int handle) {
+        byte[] bytes = new byte[buffer.getInt(handle)];
+        for (int i = 0; i < bytes.length; i++) bytes[i] = buffer.get(handle + 4 + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public int numTags(int handle) {
+        return buffer.getInt(handle + 4 + buffer.getInt(handle));
+    }
+
+    public int tag(int handle, int i) {
+        return buffer.getInt(handle + 8 + buffer.getInt(handle) + 4 * i);
+    }
+
+    public double score(int handle, int i) {
+        int length = buffer.getInt(handle);
+        return buffer.getDouble(handle + 8 + length + 4 * buffer.getInt(handle + 4 + length) + 8 * i);
+    }
+
+    /**
+     * Compares the UTF-8 word stored at handle with the given word, without encoding (or copying) plain ASCII words
+     */
+    private boolean matches(int handle, CharSequence word) {
+        int length = buffer.getInt(handle);
+        if (length == word.length()) {
+            //same number of bytes as chars only happens for ASCII, one byte per char
+            for (int i = 0; i < length; i++) {
+                char c = word.charAt(i);
+                if (c >= 0x80 || buffer.get(handle + 4 + i) != c) return false;
+            }
+            return true;
+        }
+
+        byte[] bytes = word.toString().getBytes(StandardCharsets.UTF_8);
+        if (bytes.length != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(handle + 4 + i) != bytes[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Mixes the high bits of a String hash into the low bits used to pick a slot
+     */
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,38 @@
+/**
+ * Inner step of dense (max-plus) Viterbi decoding: the best way into one next tag from a whole column of scores, the
+ * max over prev of scores[prev] + column[prev] with column[prev] the transition log probability from prev. load()
+ * picks the SIMD implementation built on the jdk.incubator.vector API (VectorMaxPlus, in vector/) when it was
+ * compiled in and the module is present at run time (--add-modules jdk.incubator.vector), and the scalar one
+ * otherwise. Running with -Dtagger.vector=false forces the scalar one
+ */
+
+public interface MaxPlus {
+    /**
+     * Lowest prev maximizing (scores[prev] + column[prev]) + obs, summed in that order, or -1 if every sum is negative
+     * infinity. Dead states and missing transitions are negative infinity, so they never win
+     *
+     * @param scores log score of each state of the current column
+     * @param column transition log probability from each state into the next tag
+     * @param obs observation log probability of the next tag
+     */
+    int argMax(double[] scores, double[] column, double obs);
+
+    /**
+     * Getter for a short name of the implementation, for reports
+     */
+    String name();
+
+    /**
+     * The SIMD implementation if it can be loaded, else the scalar one
+     */
+    static MaxPlus load() {
+        if ("false".equalsIgnoreCase(System.getProperty("tagger.vector"))) return new ScalarMaxPlus();
+        try {
+            return (MaxPlus) Class.forName("VectorMaxPlus").getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException | LinkageError e) {
+            //not compiled in, or the jdk.incubator.vector module was not added at run time
+            return new ScalarMaxPlus();
+        }
+    }
+}
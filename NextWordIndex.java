@@ -0,0 +1,160 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Precomputed next-word prediction tables of a compiled model: for every tag, the tag it most likely transitions to and
+ * its most likely words ranked by observation probability. Built once when a model is compiled (and saved with it), so
+ * a suggestion is a pair of array lookups instead of scans over the transition and observation tables
+ */
+
+public class NextWordIndex {
+    public static final int MAX_WORDS = 10; //ranked words kept per tag, so the most words any suggestion can return
+
+    private final int[] bestNextTag; //bestNextTag[tag] = most likely next tag, -1 if none
+    private final String[][] topWords; //topWords[tag] = most likely words for tag, best first
+
+    private NextWordIndex(int[] bestNextTag, String[][] topWords) {
+        this.bestNextTag = bestNextTag;
+        this.topWords = topWords;
+    }
+
+    /**
+     * Builds the index from a model's probability maps. Ties are broken the way the original bestNextWord() scan broke
+     * them, by taking the first best entry in the iteration order of the map's row
+     *
+     * @param tagProb tag transitions probability
+     * @param obsProb observations probability
+     * @param tags tag of each id
+     * @param tagIds id of each tag
+     */
+    public static NextWordIndex build(HashMap<String, HashMap<String, Double>> tagProb,
+                                      HashMap<String, HashMap<String, Double>> obsProb, String[] tags,
+                                      HashMap<String, Integer> tagIds) {
+        int[] bestNextTag = new int[tags.length];
+        String[][] topWords = new String[tags.length][];
+        for (int tag = 0; tag < tags.length; tag++) {
+            bestNextTag[tag] = bestNext(tagProb.get(tags[tag]), tagIds);
+            topWords[tag] = rank(obsProb.get(tags[tag]));
+        }
+        return new NextWordIndex(bestNextTag, topWords);
+    }
+
+    /**
+     * Builds the index of an updated model from this one, recomputing only the best next tag of the tags whose
+     * transitions changed and the ranked words of the tags whose observations changed
+     *
+     * @param tagProb updated tag transitions probability
+     * @param obsProb updated observations probability
+     * @param tagIds id of each tag
+     * @param tagRows tags whose transitions row changed
+     * @param obsRows tags whose observations row changed
+     */
+    public NextWordIndex update(HashMap<String, HashMap<String, Double>> tagProb,
+                                HashMap<String, HashMap<String, Double>> obsProb, HashMap<String, Integer> tagIds,
+                                Set<String> tagRows, Set<String> obsRows) {
+        int[] bestNextTag = this.bestNextTag.clone();
+        String[][] topWords = this.topWords.clone();
+        for (String tag : tagRows) bestNextTag[tagIds.get(tag)] = bestNext(tagProb.get(tag), tagIds);
+        for (String tag : obsRows) topWords[tagIds.get(tag)] = rank(obsProb.get(tag));
+        return new NextWordIndex(bestNextTag, topWords);
+    }
+
+    /**
+     * Id of the next tag with the highest transition probability in a tagProb row, the first one in the row's
+     * iteration order on ties (as Collections.max() picks it), or -1 if the row is missing or empty
+     */
+    private static int bestNext(HashMap<String, Double> row, HashMap<String, Integer> tagIds) {
+        if (row == null) return -1;
+        String best = null;
+        double bestScore = 0.0;
+        for (HashMap.Entry<String, Double> next : row.entrySet()) {
+            if (best == null || next.getValue() > bestScore) {
+                best = next.getKey();
+                bestScore = next.getValue();
+            }
+        }
+        return best == null ? -1 : tagIds.get(best);
+    }
+
+    /**
+     * Up to MAX_WORDS words of an obsProb row sorted by observation probability, best first; words with equal
+     * probabilities keep the row's iteration order, so the first word is the one Collections.max() picks
+     */
+    private static String[] rank(HashMap<String, Double> row) {
+        String[] words = new String[MAX_WORDS];
+        double[] scores = new double[MAX_WORDS];
+        int count = 0;
+        if (row != null) {
+            for (HashMap.Entry<String, Double> obs : row.entrySet()) {
+                double score = obs.getValue();
+                if (count == MAX_WORDS && score <= scores[count - 1]) continue;
+
+                //insert after any words with an equal score, dropping the last one if the ranking is full
+                int pos = Math.min(count, MAX_WORDS - 1);
+                while (pos > 0 && scores[pos - 1] < score) {
+                    scores[pos] = scores[pos - 1];
+                    words[pos] = words[pos - 1];
+                    pos--;
+                }
+                scores[pos] = score;
+                words[pos] = obs.getKey();
+                count = Math.min(count + 1, MAX_WORDS);
+            }
+        }
+        return Arrays.copyOf(words, count);
+    }
+
+    /**
+     * Writes the index as, for every tag: best next tag, number of words, then each word as UTF-8 length and bytes
+     */
+    public void write(DataOutputStream out) throws IOException {
+        for (int tag = 0; tag < bestNextTag.length; tag++) {
+            out.writeInt(bestNextTag[tag]);
+            out.writeInt(topWords[tag].length);
+            for (String word : topWords[tag]) {
+                byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+    }
+
+    /**
+     * Reads an index written by write() for a model with numTags tags, advancing the buffer past it
+     */
+    public static NextWordIndex read(ByteBuffer in, int numTags) throws IOException {
+        int[] bestNextTag = new int[numTags];
+        String[][] topWords = new String[numTags][];
+        for (int tag = 0; tag < numTags; tag++) {
+            bestNextTag[tag] = in.getInt();
+            if (bestNextTag[tag] < -1 || bestNextTag[tag] >= numTags) {
+                throw new IOException("Corrupt next word index: tag " + tag);
+            }
+            topWords[tag] = new String[CompiledModel.readCount(in, 4)];
+            for (int i = 0; i < topWords[tag].length; i++) {
+                byte[] bytes = new byte[CompiledModel.readCount(in, 1)];
+                in.get(bytes);
+                topWords[tag][i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+        }
+        return new NextWordIndex(bestNextTag, topWords);
+    }
+
+    /**
+     * Id of the most likely tag to follow the given tag, or -1 if it has no transitions
+     */
+    public int bestNextTag(int tag) {
+        return bestNextTag[tag];
+    }
+
+    /**
+     * Up to n of the most likely words for the given tag, best first. Only MAX_WORDS words are kept per tag, so n is
+     * clamped to MAX_WORDS
+     */
+    public List<String> topWords(int tag, int n) {
+        String[] words = topWords[tag];
+        return Collections.unmodifiableList(Arrays.asList(words).subList(0, Math.min(Math.max(n, 0), words.length)));
+    }
+}
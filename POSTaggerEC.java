@@ -1,5 +1,9 @@
 import java.io.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Part of Speech (POS) Tagger using a Hidden Markov Model and the Viterbi algorithm with an extra method to predict the best next word given a phrase/sentence
@@ -8,8 +12,8 @@ import java.util.*;
  */
 
 public class POSTaggerEC {
-    private static String trainSentPathName = "ps5/texts/brown-train-sentences.txt"; //name of file containing sentences for training
-    private static String trainTagPathName = "ps5/texts/brown-train-tags.txt"; //name of file containing tags for training
+    private String trainSentPathName = "ps5/texts/brown-train-sentences.txt"; //name of file containing sentences for training
+    private String trainTagPathName = "ps5/texts/brown-train-tags.txt"; //name of file containing tags for training
 
     private HashMap<String, HashMap<String, Integer>> tagData; //tag transitions data
     private HashMap<String, HashMap<String, Double>> tagProb; //tag transitions probability
@@ -17,142 +21,369 @@ public class POSTaggerEC {
     private HashMap<String, HashMap<String, Integer>> obsData; //observations data
     private HashMap<String, HashMap<String, Double>> obsProb; //observations probability
 
+    //second-order tag transitions data: tag before last -> last tag -> next tag counts, only kept in trigram mode
+    private HashMap<String, HashMap<String, HashMap<String, Integer>>> trigramData;
+    private boolean trigram = false; //whether training builds a second-order (trigram) model
+    private boolean suffixModel = false; //whether training builds a suffix-based unknown-word model
+    private int skippedSentences = 0; //sentences the last train() or update() left out for a mismatched number of tags
+
+    //integer-indexed form of tagProb and obsProb used for decoding; immutable and replaced as a whole, so threads that
+    //are decoding keep a consistent model while train(), setProb() or load() publish a new one
+    private volatile CompiledModel model;
+    private volatile DecodeCache cache; //optional cache of decoded sentences in front of viterbi(), null if off
+
     private final double UNOBSERVED = -100.0; //unseen word penalty
 
+    private static final int EVAL_CHUNK_SIZE = 256; //sentences per task in parallel testTagger
+    private static final int STREAM_CHUNK_SIZE = 256; //sentences per task in parallel tagStream
+    private static final int STREAM_BUFFER_SIZE = 1 << 16; //chars buffered on each side of tagStream
+
     public POSTaggerEC(){
         tagData = new HashMap<String, HashMap<String, Integer>>();
         tagProb = new HashMap<String, HashMap<String, Double>>();
         obsData = new HashMap<String, HashMap<String, Integer>>();
         obsProb = new HashMap<String, HashMap<String, Double>>();
+        trigramData = new HashMap<String, HashMap<String, HashMap<String, Integer>>>();
     }
 
     /**
      * Method to train: Creates a Hidden Markov Model (HMM) by determining the probability that any tag will transition
-     * to another tag and the probability that some particular word corresponds to some tag
+     * to another tag and the probability that some particular word corresponds to some tag. Synchronized with update()
+     * and the other methods that replace the model, since they all read and write the count maps
      */
-    public void train(){
-        tagData.put("#", new HashMap<String, Integer>());
-        tagData.get("#").put("Normalize by", 0);
-
+    public synchronized void train(){
         //open files containing training data and tags
-        BufferedReader sentInput = null, tagInput = null;
+        CorpusReader input;
         try {
-            sentInput = new BufferedReader(new FileReader(trainSentPathName));
-            tagInput = new BufferedReader(new FileReader(trainTagPathName));
+            input = new CorpusReader(trainSentPathName, trainTagPathName);
         }
-        catch (FileNotFoundException e) {
+        catch (IOException e) {
             System.err.println("Cannot open file.\n" + e.getMessage());
+            return;
         }
 
-        //read through input files
-        try{
-            String sentNext = sentInput.readLine();
-            String tagNext = tagInput.readLine();
-            while(sentNext!=null && tagNext!=null){
-                String[] sent = sentNext.split("\\s");
-                String[] tag = tagNext.split("\\s");
+        tagData.put("#", new HashMap<String, Integer>());
+        tagData.get("#").put("Normalize by", 0);
+        trigramData.remove("#");
 
-                //iterate through current sentence
-                for(int ind=0; ind<sent.length; ind++){
-                    String curWord = sent[ind]; //current word
-                    String curTag = tag[ind]; //tag for current word
+        //read through input files, counting each sentence straight off the reader's buffers and timing the reads apart
+        //from the counting
+        TrainingCounts counts = new TrainingCounts(trigram);
+        int skipped = 0;
+        long countStart = TaggerMetrics.now(), readStart = countStart, readTime = 0;
+        try {
+            boolean more = input.next();
+            readTime += TaggerMetrics.now() - readStart;
+            while (more) {
+                if (!counts.add(input.words(), input.tags())) {
+                    skipLine(input.lineNumber(), input.words().size(), input.tags().size());
+                    skipped++;
+                }
 
-                    //fill in tagData map
-                    if(!tagData.containsKey(curTag)){
-                        tagData.put(curTag, new HashMap<String, Integer>());
-                        tagData.get(curTag).put("Normalize by", 0);
-                    }
+                //read next line
+                readStart = TaggerMetrics.now();
+                more = input.next();
+                readTime += TaggerMetrics.now() - readStart;
+            }
+        }
+        catch (IOException e) {
+            System.err.println("IO error while reading.\n" + e.getMessage());
+        }
+        counts.mergeInto(tagData, obsData, trigramData);
+        skippedSentences = skipped;
+        TaggerMetrics.recordPhase("train.read", readTime);
+        TaggerMetrics.recordPhase("train.count", TaggerMetrics.now() - countStart - readTime);
 
-                    if(ind==0){
-                        if(tagData.get("#").containsKey(curTag)) {
-                            tagData.get("#").put(curTag, tagData.get("#").get(curTag)+1);
-                        }
-                        else{
-                            tagData.get("#").put(curTag, 1);
-                        }
+        //close input files
+        try {
+            input.close();
+        }
+        catch (IOException e) {
+            System.err.println("Cannot close file.\n" + e.getMessage());
+        }
 
-                        tagData.get("#").put("Normalize by", tagData.get("#").get("Normalize by")+1);
-                    }
-                    else{
-                        if(tagData.get(tag[ind-1]).containsKey(curTag)) {
-                            tagData.get(tag[ind-1]).put(curTag, tagData.get(tag[ind-1]).get(curTag)+1);
-                        }
-                        else{
-                            tagData.get(tag[ind-1]).put(curTag, 1);
-                        }
-
-                        tagData.get(tag[ind-1]).put("Normalize by", tagData.get(tag[ind-1]).get("Normalize by")+1);
-                    }
+        computeProbabilities();
+    }
 
-                    //fill in obsData map
-                    if(!obsData.containsKey(curTag)){
-                        obsData.put(curTag, new HashMap<String, Integer>());
-                        obsData.get(curTag).put("Normalize by", 0);
-                    }
+    /**
+     * Parallel version of train that splits the training files by byte range into one chunk of whole lines per thread
+     * (see CorpusReader.split), and reads, splits and counts each chunk on its own thread into its own counters. The
+     * partial counts are added together pairwise on the same threads and then merged into tagData and obsData, so the
+     * resulting probabilities are the same as those of the single-threaded train()
+     *
+     * @param numThreads number of counting threads
+     */
+    public synchronized void train(int numThreads){
+        //open files containing training data and tags
+        FileChannel sentFile, tagFile;
+        try {
+            sentFile = new FileInputStream(trainSentPathName).getChannel();
+        }
+        catch (IOException e) {
+            System.err.println("Cannot open file.\n" + e.getMessage());
+            return;
+        }
+        try {
+            tagFile = new FileInputStream(trainTagPathName).getChannel();
+        }
+        catch (IOException e) {
+            System.err.println("Cannot open file.\n" + e.getMessage());
+            closeChannel(sentFile);
+            return;
+        }
 
-                    if(obsData.get(curTag).containsKey(curWord)){
-                        obsData.get(curTag).put(curWord, obsData.get(curTag).get(curWord)+1);
+        tagData.put("#", new HashMap<String, Integer>());
+        tagData.get("#").put("Normalize by", 0);
+        trigramData.remove("#");
+
+        final boolean countTrigrams = trigram;
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        try {
+            long readStart = TaggerMetrics.now();
+            //one chunk per thread: ranges of the same size take about as long to count, and each chunk costs a merge
+            ArrayList<long[]> chunks = CorpusReader.split(sentFile, tagFile, numThreads, pool);
+            long countStart = TaggerMetrics.now();
+            TaggerMetrics.recordPhase("train.read", countStart - readStart);
+
+            //each worker reads, splits and counts its own chunk of both files
+            ArrayList<Future<TrainingCounts>> level = new ArrayList<Future<TrainingCounts>>();
+            for (long[] chunk : chunks) {
+                level.add(pool.submit(() -> {
+                    TrainingCounts counts = new TrainingCounts(countTrigrams);
+                    CorpusReader input = new CorpusReader(sentFile, tagFile, chunk);
+                    try {
+                        counts.add(input);
                     }
-                    else{
-                        obsData.get(curTag).put(curWord, 1);
+                    finally {
+                        input.close();
                     }
-                    obsData.get(curTag).put("Normalize by", obsData.get(curTag).get("Normalize by")+1);
+                    return counts;
+                }));
+            }
 
+            //add the partial counts together in pairs, level by level; a pair is queued after both of its halves, so
+            //the pool has always started them by the time it waits for them
+            while (level.size() > 1) {
+                ArrayList<Future<TrainingCounts>> next = new ArrayList<Future<TrainingCounts>>();
+                for (int i = 0; i + 1 < level.size(); i += 2) {
+                    Future<TrainingCounts> left = level.get(i), right = level.get(i + 1);
+                    next.add(pool.submit(() -> left.get().addAll(right.get())));
                 }
-
-                //read next line
-                sentNext = sentInput.readLine();
-                tagNext = tagInput.readLine();
+                if (level.size() % 2 == 1) next.add(level.get(level.size() - 1));
+                level = next;
             }
+
+            TrainingCounts counts = level.isEmpty() ? new TrainingCounts(countTrigrams) : level.get(0).get();
+            counts.mergeInto(tagData, obsData, trigramData);
+            TaggerMetrics.recordPhase("train.count", TaggerMetrics.now() - countStart);
+            reportSkipped(counts.skipped());
         }
         catch (IOException e) {
             System.err.println("IO error while reading.\n" + e.getMessage());
+            return;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Interrupted while training.");
+            return;
+        }
+        catch (ExecutionException e) {
+            //a failed count surfaces through every pair above it
+            Throwable cause = e.getCause();
+            while (cause instanceof ExecutionException) cause = cause.getCause();
+            if (cause instanceof IOException) System.err.println("IO error while reading.\n" + cause.getMessage());
+            else System.err.println("Error while counting.\n" + cause);
+            return;
         }
+        finally {
+            pool.shutdownNow();
+            closeChannel(sentFile);
+            closeChannel(tagFile);
+        }
+
+        computeProbabilities();
+    }
+
+    /**
+     * Closes a training file, reporting rather than throwing a failure
+     */
+    private static void closeChannel(FileChannel channel) {
+        try {
+            channel.close();
+        }
+        catch (IOException e) {
+            System.err.println("Cannot close file.\n" + e.getMessage());
+        }
+    }
+
+    /**
+     * Calculates tagProb and obsProb from the counts in tagData and obsData, then compiles them for decoding, with
+     * second-order transitions from trigramData in trigram mode and the unknown-word model if it is switched on
+     */
+    private void computeProbabilities(){
+        long normalizeStart = TaggerMetrics.now();
 
         //Calculate tag transition probabilities
         for (HashMap.Entry<String,HashMap<String, Integer>> curTag1 : tagData.entrySet()) {
             if(!curTag1.getKey().equals("Normalize by")) {
-                tagProb.put(curTag1.getKey(), new HashMap<String, Double>());
-
-                for (HashMap.Entry<String, Integer> curTag2 : curTag1.getValue().entrySet()) {
-                    if(!curTag2.getKey().equals("Normalize by")) {
-                        double curProb = Math.log((double) curTag2.getValue() / curTag1.getValue().get("Normalize by"));
-                        tagProb.get(curTag1.getKey()).put(curTag2.getKey(), curProb);
-                    }
-                }
+                tagProb.put(curTag1.getKey(), rowProbabilities(curTag1.getValue()));
             }
         }
 
         //Calculate observation probabilities
         for (HashMap.Entry<String,HashMap<String, Integer>> curObs1 : obsData.entrySet()) {
             if(!curObs1.getKey().equals("Normalize by")) {
-                obsProb.put(curObs1.getKey(), new HashMap<String, Double>());
+                obsProb.put(curObs1.getKey(), rowProbabilities(curObs1.getValue()));
+            }
+        }
 
-                for (HashMap.Entry<String, Integer> curObs2 : curObs1.getValue().entrySet()) {
-                    if(!curObs2.getKey().equals("Normalize by")) {
-                        double curProb = Math.log((double) curObs2.getValue() / curObs1.getValue().get("Normalize by"));
-                        obsProb.get(curObs1.getKey()).put(curObs2.getKey(), curProb);
-                    }
-                }
+        long compileStart = TaggerMetrics.now();
+        TaggerMetrics.recordPhase("train.normalize", compileStart - normalizeStart);
+        CompiledModel compiled = CompiledModel.compile(tagProb, obsProb, UNOBSERVED);
+        if (trigram) compiled = compiled.withTrigrams(tagData, trigramData);
+        if (suffixModel) compiled = compiled.withSuffixes(obsData);
+        model = compiled;
+        clearCache();
+        TaggerMetrics.recordPhase("train.compile", TaggerMetrics.now() - compileStart);
+    }
+
+    /**
+     * Log probabilities of one row of counts, each count divided by the row's "Normalize by" total
+     */
+    private static HashMap<String, Double> rowProbabilities(HashMap<String, Integer> counts) {
+        HashMap<String, Double> probs = new HashMap<String, Double>();
+        for (HashMap.Entry<String, Integer> cur : counts.entrySet()) {
+            if(!cur.getKey().equals("Normalize by")) {
+                probs.put(cur.getKey(), Math.log((double) cur.getValue() / counts.get("Normalize by")));
             }
         }
+        return probs;
+    }
 
-        //close input files
-        try {
-            sentInput.close();
-            tagInput.close();
+    /**
+     * Method that folds newly annotated sentences into the trained model without retraining: adds their counts to
+     * tagData and obsData, recomputes only the tagProb and obsProb rows whose counts changed, then recompiles only the
+     * parts of the model those rows touch (see CompiledModel.update) and publishes it. Threads decoding through
+     * viterbi() or a TaggingService keep the model they started with and see the updated one on their next call.
+     * Updates are applied one at a time, and the result is the same as training on all the data at once
+     *
+     * @param sentences new sentences, words separated by spaces
+     * @param tags tags for each sentence, separated by spaces
+     * @return whether the model was updated; a model that was loaded or set with setProb() has no counts to update
+     */
+    public synchronized boolean update(List<String> sentences, List<String> tags) {
+        if (sentences.size() != tags.size()) {
+            throw new IllegalArgumentException(sentences.size() + " sentences but " + tags.size() + " tag lines");
         }
-        catch (IOException e) {
-            System.err.println("Cannot close file.\n" + e.getMessage());
+        if (model != null && tagData.isEmpty()) {
+            System.err.println("Cannot update model.\nThe model has no training counts, train it first.");
+            return false;
         }
+
+        long startTime = TaggerMetrics.now();
+        TrainingCounts counts = new TrainingCounts(trigram);
+        counts.add(sentences.toArray(new String[0]), tags.toArray(new String[0]));
+        counts.mergeInto(tagData, obsData, trigramData);
+        reportSkipped(counts.skipped());
+
+        //only rows that got new counts have a new "Normalize by" total
+        for (String tag : counts.tagCounts.keySet()) tagProb.put(tag, rowProbabilities(tagData.get(tag)));
+        for (String tag : counts.obsCounts.keySet()) obsProb.put(tag, rowProbabilities(obsData.get(tag)));
+
+        CompiledModel compiled = model == null ? CompiledModel.compile(tagProb, obsProb, UNOBSERVED)
+                : model.update(tagProb, obsProb, counts.tagCounts.keySet(), counts.obsCounts.keySet());
+        //the trigram table is small next to the rest of the model, so it is rebuilt in full
+        if (trigram && (model == null || model.hasTrigrams())) compiled = compiled.withTrigrams(tagData, trigramData);
+        //so is the suffix trie, since new counts can make a rare word common and change every suffix it ends with
+        if (suffixModel && (model == null || model.hasSuffixes())) compiled = compiled.withSuffixes(obsData);
+        model = compiled;
+        clearCache();
+        TaggerMetrics.recordPhase("update", TaggerMetrics.now() - startTime);
+        return true;
     }
 
     /**
-     * Method that performs Viterbi decoding to identify the best sequence of tags for a given line
+     * Method that performs Viterbi decoding to identify the best sequence of tags for a given line, using the compiled
+     * model built by train() or setProb(), or the decode cache if one is enabled. Ties between equal scores go to the
+     * lowest tag id (see CompiledModel.viterbi)
      *
      * @param line String of words
      */
     public ArrayList<String> viterbi(String line){
+        DecodeCache current = cache;
+        return current == null ? model.viterbi(line) : current.tag(model, line);
+    }
+
+    /**
+     * Method that performs beam-pruned Viterbi decoding, keeping only the beamWidth best states within beamMargin of the
+     * best score after each word
+     *
+     * @param line String of words
+     * @param beamWidth maximum number of states kept per word
+     * @param beamMargin maximum log score distance from the best state kept per word
+     */
+    public ArrayList<String> viterbi(String line, int beamWidth, double beamMargin){
+        return model.viterbi(line, beamWidth, beamMargin);
+    }
+
+    /**
+     * Method that tags a batch of lines in one call, returning their tags in input order: the lines are grouped by
+     * length and decoded over reused lattice buffers (see CompiledModel.tagBatch), or looked up line by line in the
+     * decode cache if one is enabled. The whole batch is decoded against the same model. Safe to call from several
+     * threads at once
+     *
+     * @param lines lines of words
+     */
+    public List<ArrayList<String>> tagBatch(List<String> lines){
+        CompiledModel current = model;
+        DecodeCache currentCache = cache;
+        if (currentCache == null) return current.tagBatch(lines);
+
+        ArrayList<ArrayList<String>> labels = new ArrayList<ArrayList<String>>(lines.size());
+        for (String line : lines) labels.add(currentCache.tag(current, line));
+        return labels;
+    }
+
+    /**
+     * Method that finds the n best tag sequences for a line with their log scores, best first; the first is the
+     * sequence viterbi() gives (see CompiledModel.nBest)
+     *
+     * @param line String of words
+     * @param n number of tag sequences wanted
+     */
+    public List<ScoredPath> nBest(String line, int n){
+        return model.nBest(line, n);
+    }
+
+    /**
+     * Method that computes the posterior probability of every tag of every word of a line with forward-backward,
+     * giving a confidence score for each word's tag (see CompiledModel.posteriors)
+     *
+     * @param line String of words
+     */
+    public TagPosteriors posteriors(String line){
+        return model.posteriors(line);
+    }
+
+    /**
+     * Method that performs Viterbi decoding with each step as a max-plus product over the dense transition matrix, on
+     * SIMD lanes when the jdk.incubator.vector module is available (see CompiledModel.maxPlusViterbi). Gives the same
+     * tags as viterbi()
+     *
+     * @param line String of words
+     */
+    public ArrayList<String> maxPlusViterbi(String line){
+        return model.maxPlusViterbi(line);
+    }
+
+    /**
+     * Reference Viterbi decoding directly over the tagProb and obsProb maps, kept to check the compiled decoder against
+     * (see compareDecoders). Ties between equal scores go to whichever state HashMap iteration reaches first, so on a
+     * tie it can pick a different sequence of the same score than viterbi()
+     *
+     * @param line String of words
+     */
+    public ArrayList<String> mapViterbi(String line){
         ArrayList<String> sent = new ArrayList<String>(Arrays.asList(line.split("\\s"))); //ArrayList of words from sentence
         ArrayList<String> labels = new ArrayList<String>(); //ArrayList to store tags
         //ArrayList of maps to keep track of predecessor of each state
@@ -223,6 +454,94 @@ public class POSTaggerEC {
         return labels;
     }
 
+    /**
+     * Non-interactive tagging of a stream of sentences, one per line, written to out as lines of word/TAG pairs
+     * separated by spaces (blank lines stay blank). Both sides are UTF-8 and buffered. With more than one thread, chunks
+     * of lines are decoded concurrently and written back in input order; only a bounded number of chunks is held at a
+     * time, so memory use does not depend on the size of the input
+     *
+     * @param in channel to read sentences from
+     * @param out channel to write tagged sentences to
+     * @param numThreads number of decoding threads
+     * @return number of lines tagged
+     */
+    public long tagStream(ReadableByteChannel in, WritableByteChannel out, int numThreads) throws IOException {
+        LineReader input = new LineReader(in);
+        Writer output = new BufferedWriter(Channels.newWriter(out, StandardCharsets.UTF_8.newEncoder(), STREAM_BUFFER_SIZE),
+                STREAM_BUFFER_SIZE);
+
+        long numLines = 0;
+        if (numThreads <= 1) {
+            StringBuilder tagged = new StringBuilder();
+            Tokenizer words = new Tokenizer();
+            while (input.next()) {
+                tagged.setLength(0);
+                words.split(input.chars(), input.length());
+                appendTagged(words, tagged);
+                output.append(tagged).append('\n');
+                numLines++;
+            }
+            output.flush();
+            return numLines;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        ArrayDeque<Future<StringBuilder>> inFlight = new ArrayDeque<Future<StringBuilder>>();
+        try {
+            boolean more = input.next();
+            while (more) {
+                final ArrayList<String> chunk = new ArrayList<String>(STREAM_CHUNK_SIZE);
+                while (more && chunk.size() < STREAM_CHUNK_SIZE) {
+                    chunk.add(input.line());
+                    more = input.next();
+                }
+                numLines += chunk.size();
+
+                inFlight.add(pool.submit(() -> {
+                    StringBuilder tagged = new StringBuilder();
+                    Tokenizer words = new Tokenizer();
+                    for (String sentence : chunk) {
+                        words.split(sentence);
+                        appendTagged(words, tagged);
+                        tagged.append('\n');
+                    }
+                    return tagged;
+                }));
+
+                //write the oldest chunk once enough are queued, which keeps the output in input order
+                if (inFlight.size() >= 2 * numThreads) output.append(inFlight.poll().get());
+            }
+
+            while (!inFlight.isEmpty()) output.append(inFlight.poll().get());
+            output.flush();
+            return numLines;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while tagging.");
+        }
+        catch (ExecutionException e) {
+            throw new IOException("Error while tagging.", e.getCause());
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Appends the line a tokenizer last split to tagged as word/TAG pairs separated by spaces (nothing for a blank line)
+     */
+    private void appendTagged(Tokenizer words, StringBuilder tagged) {
+        if (words.size() == 0 || (words.size() == 1 && words.token(0).length() == 0)) return;
+
+        DecodeCache current = cache;
+        List<String> tags = current == null ? model.viterbi(words) : current.tag(model, words.joined());
+        for (int i = 0; i < words.size(); i++) {
+            if (i > 0) tagged.append(' ');
+            tagged.append(words.token(i)).append('/').append(tags.get(i));
+        }
+    }
+
     /**
      * Console-based test method that receives a line from the user and outputs the line with tags
      */
@@ -233,13 +552,14 @@ public class POSTaggerEC {
 
         String line = scan.nextLine();
 
+        Tokenizer words = new Tokenizer();
         while (!line.equals("q")) {
             List<String> tags = viterbi(line); //pass inputted line to viterbi method to get a list of tags
-            List<String> words = Arrays.asList(line.split("\\s"));
+            words.split(line);
 
             //print out tags with words in sentence
             for (int i = 0; i < words.size(); i++) {
-                System.out.print(words.get(i) + "/" + tags.get(i) + " ");
+                System.out.print(words.token(i) + "/" + tags.get(i) + " ");
             }
 
             System.out.println("\n\nEnter a sentence or type 'q' to quit: ");
@@ -255,58 +575,580 @@ public class POSTaggerEC {
      * @param testTagPathName test tags
      */
     public void testTagger(String testSentPathName, String testTagPathName) {
+        testTagger(testSentPathName, testTagPathName, false);
+    }
 
-        // Sets up scanner
-        BufferedReader sentInput = null, tagInput = null;
+    /**
+     * File-based test method that evaluates performance of POSTagger given a pair of test files, optionally printing
+     * how the time was split between reading the files, decoding and scoring the tags. The phase times are also
+     * recorded in TaggerMetrics
+     *
+     * @param testSentPathName test sentences
+     * @param testTagPathName test tags
+     * @param printTimings whether to print the per-phase timing breakdown
+     */
+    public void testTagger(String testSentPathName, String testTagPathName, boolean printTimings) {
 
+        // Opens both files, to be read in lockstep
+        CorpusReader input;
         try {
-            sentInput = new BufferedReader(new FileReader(testSentPathName));
-            tagInput = new BufferedReader(new FileReader(testTagPathName));
+            input = new CorpusReader(testSentPathName, testTagPathName);
         }
-        catch (FileNotFoundException e) {
+        catch (IOException e) {
             System.err.println("Cannot open file.\n" + e.getMessage());
+            return;
         }
 
         try {
 
             // Gets sentence and corresponding tags from files
-            String sentNext = sentInput.readLine();
-            String tagNext = tagInput.readLine();
+            long time = System.nanoTime(), readTime = 0, decodeTime = 0, scoreTime = 0;
+            boolean more = input.next();
 
             int numMatching = 0;
             int numTotal = 0;
 
             // While there are lines to read, increments the matching tags and total tags sentence by sentence
-            while (sentNext != null && tagNext != null) {
-                String[] expectedTags = tagNext.split("\\s");
-                List<String> predictedTags = viterbi(sentNext);
+            while (more) {
+                long decodeStart = System.nanoTime();
+                readTime += decodeStart - time;
+                Tokenizer expectedTags = input.tags();
+                if (expectedTags.size() != input.words().size()) {
+                    skipLine(input.lineNumber(), input.words().size(), expectedTags.size());
+                    time = System.nanoTime();
+                    more = input.next();
+                    continue;
+                }
+                List<String> predictedTags = viterbi(input);
+                long scoreStart = System.nanoTime();
+                decodeTime += scoreStart - decodeStart;
 
-                for (int i = 0; i < expectedTags.length; i++) {
-                    if (expectedTags[i].equals(predictedTags.get(i))) { numMatching++; }
+                for (int i = 0; i < expectedTags.size(); i++) {
+                    if (expectedTags.tokenEquals(i, predictedTags.get(i))) { numMatching++; }
                 }
 
-                numTotal+=expectedTags.length;
+                numTotal+=expectedTags.size();
 
-                sentNext = sentInput.readLine();
-                tagNext = tagInput.readLine();
+                time = System.nanoTime();
+                scoreTime += time - scoreStart;
+                more = input.next();
             }
+            readTime += System.nanoTime() - time;
+
+            TaggerMetrics.recordPhase("eval.read", readTime);
+            TaggerMetrics.recordPhase("eval.decode", decodeTime);
+            TaggerMetrics.recordPhase("eval.score", scoreTime);
 
             // Outputs performance using the number of correct and total tags
             System.out.println("\nEvaluating performance for '" + testSentPathName + "' and '" + testTagPathName +"':");
             System.out.println(numMatching + " correct, " + (numTotal-numMatching) + " wrong (" + Math.round((double)numMatching/numTotal*100.0)+"% accuracy)");
+            if (printTimings) {
+                System.out.println("Time: read " + Math.round(readTime/1e6) + " ms, decode " + Math.round(decodeTime/1e6)
+                        + " ms, score " + Math.round(scoreTime/1e6) + " ms (total "
+                        + Math.round((readTime+decodeTime+scoreTime)/1e6) + " ms)");
+            }
         }
         catch (IOException e) {
             System.err.println("IO error while reading.\n" + e.getMessage());
         }
+        finally {
+            try {
+                input.close();
+            }
+            catch (IOException e) {
+                System.err.println("Cannot close file.\n" + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Tags the current sentence of a corpus reader, straight off its tokens unless the decode cache is on (the cache is
+     * keyed on the line, so it needs the words as a String)
+     */
+    private ArrayList<String> viterbi(CorpusReader input) {
+        DecodeCache current = cache;
+        return current == null ? model.viterbi(input.words()) : current.tag(model, input.words().joined());
+    }
+
+    /**
+     * Reports a line pair whose number of tags does not match its number of words, which is then left out
+     */
+    private static void skipLine(long lineNumber, int numWords, int numTags) {
+        System.err.println("Skipping line " + lineNumber + ": " + numWords + " words but " + numTags + " tags.");
+    }
+
+    /**
+     * Records and reports, once, how many sentences counting workers left out for a mismatched number of tags
+     */
+    private void reportSkipped(int skipped) {
+        skippedSentences = skipped;
+        if (skipped > 0) System.err.println("Skipped " + skipped + " sentences: number of words and tags differ.");
+    }
+
+    /**
+     * Getter for the number of sentences the last train() or update() left out because their number of tags did not
+     * match their number of words
+     */
+    public int getSkippedSentences() {
+        return skippedSentences;
+    }
+
+    /**
+     * Parallel version of testTagger that decodes the test sentences on numThreads threads of a new fork-join pool
+     *
+     * @param testSentPathName test sentences
+     * @param testTagPathName test tags
+     * @param numThreads number of decoding threads
+     */
+    public void testTagger(String testSentPathName, String testTagPathName, int numThreads) {
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try {
+            testTagger(testSentPathName, testTagPathName, pool);
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Parallel version of testTagger that decodes chunks of test sentences concurrently on the given executor, keeping
+     * twice as many chunks in flight as the executor has threads: its maximum pool size for a ThreadPoolExecutor, its
+     * parallelism for a ForkJoinPool, and the number of processors for any other (or an unbounded) executor
+     *
+     * @param testSentPathName test sentences
+     * @param testTagPathName test tags
+     * @param pool executor to decode on
+     */
+    public void testTagger(String testSentPathName, String testTagPathName, ExecutorService pool) {
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        if (pool instanceof ThreadPoolExecutor && ((ThreadPoolExecutor) pool).getMaximumPoolSize() < Integer.MAX_VALUE) {
+            numThreads = ((ThreadPoolExecutor) pool).getMaximumPoolSize();
+        }
+        else if (pool instanceof ForkJoinPool) {
+            numThreads = ((ForkJoinPool) pool).getParallelism();
+        }
+        testTagger(testSentPathName, testTagPathName, pool, 2 * numThreads);
+    }
+
+    /**
+     * Parallel version of testTagger that decodes chunks of test sentences concurrently on the given executor, sharing
+     * the trained model. Each chunk counts its own correct and total tags, and the counts are added up on the reading
+     * thread, so the result is the same as the sequential version. Also reports elapsed time and throughput
+     *
+     * @param testSentPathName test sentences
+     * @param testTagPathName test tags
+     * @param pool executor to decode on
+     * @param maxInFlight most chunks of sentences submitted to the executor and not yet counted at any time
+     */
+    public void testTagger(String testSentPathName, String testTagPathName, ExecutorService pool, int maxInFlight) {
+        if (maxInFlight < 1) throw new IllegalArgumentException("maxInFlight must be at least 1: " + maxInFlight);
+
+        // Opens both files, to be read in lockstep
+        CorpusReader input;
+        try {
+            input = new CorpusReader(testSentPathName, testTagPathName);
+        }
+        catch (IOException e) {
+            System.err.println("Cannot open file.\n" + e.getMessage());
+            return;
+        }
+
+        //bound the number of chunks in flight so memory does not grow with the size of the test files
+        ArrayDeque<Future<int[]>> inFlight = new ArrayDeque<Future<int[]>>();
+
+        long startTime = System.nanoTime();
+        int numSentences = 0;
+        int numMatching = 0;
+        int numTotal = 0;
+
+        try {
+            boolean more = input.next();
+
+            while (more) {
+                // Gathers a chunk of sentences and corresponding tags and hands it to the executor
+                final ArrayList<String> sentChunk = new ArrayList<String>(EVAL_CHUNK_SIZE);
+                final ArrayList<String> tagChunk = new ArrayList<String>(EVAL_CHUNK_SIZE);
+                final long firstLine = input.lineNumber();
+                while (more && sentChunk.size() < EVAL_CHUNK_SIZE) {
+                    sentChunk.add(input.sentenceLine());
+                    tagChunk.add(input.tagLine());
+                    more = input.next();
+                }
+                numSentences += sentChunk.size();
+
+                inFlight.add(pool.submit(() -> evaluateChunk(sentChunk, tagChunk, firstLine)));
+                if (inFlight.size() >= maxInFlight) {
+                    int[] counts = inFlight.poll().get();
+                    numMatching += counts[0];
+                    numTotal += counts[1];
+                }
+            }
+
+            while (!inFlight.isEmpty()) {
+                int[] counts = inFlight.poll().get();
+                numMatching += counts[0];
+                numTotal += counts[1];
+            }
+
+            double seconds = (System.nanoTime() - startTime) / 1e9;
+
+            // Outputs performance using the number of correct and total tags, then throughput
+            System.out.println("\nEvaluating performance for '" + testSentPathName + "' and '" + testTagPathName +"':");
+            System.out.println(numMatching + " correct, " + (numTotal-numMatching) + " wrong (" + Math.round((double)numMatching/numTotal*100.0)+"% accuracy)");
+            System.out.println(numSentences + " sentences, " + numTotal + " tokens in " + Math.round(seconds*1000.0) + " ms ("
+                    + Math.round(numSentences/seconds) + " sentences/sec, " + Math.round(numTotal/seconds) + " tokens/sec)");
+        }
+        catch (IOException e) {
+            System.err.println("IO error while reading.\n" + e.getMessage());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Interrupted while evaluating.");
+        }
+        catch (ExecutionException e) {
+            System.err.println("Error while tagging.\n" + e.getCause());
+        }
+        finally {
+            for (Future<int[]> f : inFlight) f.cancel(true);
+            try {
+                input.close();
+            }
+            catch (IOException e) {
+                System.err.println("Cannot close file.\n" + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Tags a chunk of test sentences starting at line firstLine as one batch and returns {number of matching tags,
+     * total number of tags}
+     */
+    private int[] evaluateChunk(List<String> sentences, List<String> tags, long firstLine) {
+        int numMatching = 0;
+        int numTotal = 0;
+        Tokenizer words = new Tokenizer();
+        Tokenizer expectedTags = new Tokenizer();
+        List<ArrayList<String>> predicted = tagBatch(sentences);
+
+        for (int s = 0; s < sentences.size(); s++) {
+            words.split(sentences.get(s));
+            expectedTags.split(tags.get(s));
+            if (expectedTags.size() != words.size()) {
+                skipLine(firstLine + s, words.size(), expectedTags.size());
+                continue;
+            }
+            List<String> predictedTags = predicted.get(s);
+
+            for (int i = 0; i < expectedTags.size(); i++) {
+                if (expectedTags.tokenEquals(i, predictedTags.get(i))) { numMatching++; }
+            }
+
+            numTotal+=expectedTags.size();
+        }
+
+        return new int[]{numMatching, numTotal};
+    }
+
+    /**
+     * File-based test method that reports how far beam-pruned decoding drifts from exact Viterbi on a pair of test
+     * files: tags and sentences where the two disagree, the accuracy of each, and the time spent decoding with each
+     *
+     * @param testSentPathName test sentences
+     * @param testTagPathName test tags
+     * @param beamWidth maximum number of states kept per word
+     * @param beamMargin maximum log score distance from the best state kept per word
+     */
+    public void compareBeam(String testSentPathName, String testTagPathName, int beamWidth, double beamMargin) {
+        CorpusReader input;
+        try {
+            input = new CorpusReader(testSentPathName, testTagPathName);
+        }
+        catch (IOException e) {
+            System.err.println("Cannot open file.\n" + e.getMessage());
+            return;
+        }
+
+        try {
+            CompiledModel current = model;
+            int exactMatching = 0, beamMatching = 0, numTotal = 0;
+            int tagsDiffering = 0, sentencesDiffering = 0, numSentences = 0;
+            long exactTime = 0, beamTime = 0;
+
+            while (input.next()) {
+                Tokenizer expectedTags = input.tags();
+                if (expectedTags.size() != input.words().size()) {
+                    skipLine(input.lineNumber(), input.words().size(), expectedTags.size());
+                    continue;
+                }
+
+                long t0 = System.nanoTime();
+                List<String> exactTags = current.viterbi(input.words());
+                long t1 = System.nanoTime();
+                List<String> beamTags = current.viterbi(input.words(), beamWidth, beamMargin);
+                long t2 = System.nanoTime();
+                exactTime += t1 - t0;
+                beamTime += t2 - t1;
+
+                int differing = 0;
+                for (int i = 0; i < expectedTags.size(); i++) {
+                    if (expectedTags.tokenEquals(i, exactTags.get(i))) { exactMatching++; }
+                    if (expectedTags.tokenEquals(i, beamTags.get(i))) { beamMatching++; }
+                    if (!Objects.equals(exactTags.get(i), beamTags.get(i))) { differing++; }
+                }
+
+                tagsDiffering += differing;
+                if (differing > 0) { sentencesDiffering++; }
+                numTotal += expectedTags.size();
+                numSentences++;
+            }
+
+            System.out.println("\nComparing beam (width " + beamWidth + ", margin " + beamMargin + ") with exact decoding for '"
+                    + testSentPathName + "' and '" + testTagPathName + "':");
+            System.out.println("exact: " + exactMatching + " correct (" + Math.round((double)exactMatching/numTotal*100.0)
+                    + "% accuracy) in " + Math.round(exactTime/1e6) + " ms");
+            System.out.println("beam:  " + beamMatching + " correct (" + Math.round((double)beamMatching/numTotal*100.0)
+                    + "% accuracy) in " + Math.round(beamTime/1e6) + " ms");
+            System.out.println(tagsDiffering + " of " + numTotal + " tags and " + sentencesDiffering + " of " + numSentences
+                    + " sentences differ from exact decoding");
+        }
+        catch (IOException e) {
+            System.err.println("IO error while reading.\n" + e.getMessage());
+        }
+        finally {
+            try {
+                input.close();
+            }
+            catch (IOException e) {
+                System.err.println("Cannot close file.\n" + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * File-based test method that decodes every line of a sentence file with both the compiled decoder and
+     * mapViterbi(), and reports how many tag sequences differ. A difference where both sequences have the same score
+     * is a tie: the compiled decoder breaks ties by lowest tag id and mapViterbi() by HashMap order, so those are
+     * counted apart from real mismatches. Only covers a first-order model without the unknown-word model, trained or
+     * set in this tagger, since that is the model mapViterbi() decodes
+     *
+     * @param testSentPathName test sentences
+     */
+    public void compareDecoders(String testSentPathName) {
+        CompiledModel current = model;
+        if (tagProb.isEmpty() || current.hasTrigrams() || current.hasSuffixes()) {
+            System.err.println("Cannot compare decoders: mapViterbi() only decodes a first-order model without the "
+                    + "unknown-word model, trained or set in this tagger");
+            return;
+        }
+
+        BufferedReader input;
+        try {
+            input = new BufferedReader(new FileReader(testSentPathName));
+        }
+        catch (IOException e) {
+            System.err.println("Cannot open file.\n" + e.getMessage());
+            return;
+        }
+
+        try {
+            int numSentences = 0, numTies = 0, numMismatches = 0;
+            String line;
+            while ((line = input.readLine()) != null) {
+                if (line.trim().isEmpty()) continue;
+                numSentences++;
+
+                List<String> compiledTags = current.viterbi(line);
+                List<String> mapTags = mapViterbi(line);
+                if (compiledTags.equals(mapTags)) continue;
+
+                //same score for both sequences means the decoders only broke a tie differently
+                String[] words = line.split("\\s");
+                double compiledScore = pathScore(words, compiledTags), mapScore = pathScore(words, mapTags);
+                if (Math.abs(compiledScore - mapScore) <= 1e-9 * Math.max(1.0, Math.abs(mapScore))) numTies++;
+                else numMismatches++;
+            }
+
+            System.out.println("\nComparing compiled and map-based decoding for '" + testSentPathName + "':");
+            System.out.println((numTies + numMismatches) + " of " + numSentences + " sentences differ: " + numTies
+                    + " ties of equal score, " + numMismatches + " mismatches");
+        }
+        catch (IOException e) {
+            System.err.println("IO error while reading.\n" + e.getMessage());
+        }
+        finally {
+            try {
+                input.close();
+            }
+            catch (IOException e) {
+                System.err.println("Cannot close file.\n" + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Log score of a tag sequence for a sentence under the tagProb and obsProb maps, summed as mapViterbi() scores it,
+     * or negative infinity if the sequence uses a transition the model does not have
+     */
+    private double pathScore(String[] words, List<String> tags) {
+        if (tags.size() != words.length) return Double.NEGATIVE_INFINITY;
+        double score = 0.0;
+        String prev = "#";
+        for (int i = 0; i < words.length; i++) {
+            HashMap<String, Double> transitions = tagProb.get(prev);
+            Double trans = transitions == null ? null : transitions.get(tags.get(i));
+            if (trans == null) return Double.NEGATIVE_INFINITY;
+            HashMap<String, Double> observations = obsProb.get(tags.get(i));
+            Double obs = observations == null ? null : observations.get(words[i]);
+            score += trans + (obs == null ? UNOBSERVED : obs);
+            prev = tags.get(i);
+        }
+        return score;
     }
 
     /**
      * Setter method for probability maps that is used to test the viterbi algorithm with hard-coded
-     * graphs
+     * graphs. Any training counts are dropped, since they no longer describe the model
      */
-    public void setProb(HashMap<String, HashMap<String, Double>> tagProb, HashMap<String, HashMap<String, Double>> obsProb){
+    public synchronized void setProb(HashMap<String, HashMap<String, Double>> tagProb,
+                                     HashMap<String, HashMap<String, Double>> obsProb){
+        CompiledModel compiled = CompiledModel.compile(tagProb, obsProb, UNOBSERVED);
+        clearCounts();
         this.tagProb = tagProb;
         this.obsProb = obsProb;
+        model = compiled;
+        clearCache();
+    }
+
+    /**
+     * Method that puts a bounded LRU cache of decoded sentences in front of viterbi(), for workloads that tag the same
+     * sentences over and over. The cache is emptied whenever the model is replaced
+     *
+     * @param maxEntries maximum number of sentences kept
+     */
+    public void enableCache(int maxEntries) {
+        cache = new DecodeCache(maxEntries);
+    }
+
+    /**
+     * Method that turns the decode cache off
+     */
+    public void disableCache() {
+        cache = null;
+    }
+
+    /**
+     * Getter for the decode cache, e.g. for its hit/miss statistics, or null if it is off
+     */
+    public DecodeCache getCache() {
+        return cache;
+    }
+
+    private void clearCache() {
+        DecodeCache current = cache;
+        if (current != null) current.clear();
+    }
+
+    /**
+     * Getter for the current compiled model. The model is immutable, so it can be handed to any number of threads (see
+     * TaggingService) and stays valid after this tagger is retrained
+     */
+    public CompiledModel getModel() {
+        return model;
+    }
+
+    /**
+     * Saves the trained model to a binary snapshot file that load() can read back without retraining
+     *
+     * @param path snapshot file
+     */
+    public void save(Path path) {
+        try {
+            model.save(path);
+        }
+        catch (IOException e) {
+            System.err.println("Cannot save model.\n" + e.getMessage());
+        }
+    }
+
+    /**
+     * Loads a model snapshot written by save(), replacing the current model. The training maps are cleared since they
+     * no longer describe the model, so mapViterbi() is not available on a loaded model
+     *
+     * @param path snapshot file
+     * @return whether the model was loaded
+     */
+    public boolean load(Path path) {
+        return load(path, false);
+    }
+
+    /**
+     * Loads a model snapshot written by save(), optionally keeping its observation table in the memory-mapped file
+     * instead of on the heap (for very large vocabularies, or to share one model file between several tagger processes)
+     *
+     * @param path snapshot file
+     * @param mapped whether to keep the observation table in the mapped file
+     * @return whether the model was loaded
+     */
+    public synchronized boolean load(Path path, boolean mapped) {
+        try {
+            model = CompiledModel.load(path, mapped);
+            clearCache();
+        }
+        catch (IOException e) {
+            System.err.println("Cannot load model.\n" + e.getMessage());
+            return false;
+        }
+
+        clearCounts();
+        tagProb = new HashMap<String, HashMap<String, Double>>();
+        obsProb = new HashMap<String, HashMap<String, Double>>();
+        return true;
+    }
+
+    /**
+     * Drops the training counts once the model no longer comes from them, so update() refuses to fold new sentences
+     * into counts of a different model
+     */
+    private void clearCounts() {
+        tagData = new HashMap<String, HashMap<String, Integer>>();
+        obsData = new HashMap<String, HashMap<String, Integer>>();
+        trigramData = new HashMap<String, HashMap<String, HashMap<String, Integer>>>();
+    }
+
+    /**
+     * Setter for whether training builds a second-order (trigram) model, which decodes over pairs of tags with
+     * transitions smoothed by deleted interpolation (see TrigramTable), instead of the first-order one. Takes effect
+     * the next time the tagger is trained; testTagger() then measures the trigram model
+     *
+     * @param trigram whether to train a trigram model
+     */
+    public void setTrigram(boolean trigram) {
+        this.trigram = trigram;
+    }
+
+    /**
+     * Getter for whether training builds a second-order (trigram) model
+     */
+    public boolean isTrigram() {
+        return trigram;
+    }
+
+    /**
+     * Setter for whether training also builds a suffix-based unknown-word model (see SuffixTrie): words never seen in
+     * training then only expand the tags their last letters and shape suggest, with real scores, instead of every tag
+     * at the unseen word penalty. Takes effect the next time the tagger is trained
+     *
+     * @param suffixModel whether to build the unknown-word model
+     */
+    public void setUnknownWordModel(boolean suffixModel) {
+        this.suffixModel = suffixModel;
+    }
+
+    /**
+     * Getter for whether training builds a suffix-based unknown-word model
+     */
+    public boolean isUnknownWordModel() {
+        return suffixModel;
     }
 
     /**
@@ -319,6 +1161,16 @@ public class POSTaggerEC {
         trainTagPathName = tagFile;
     }
 
+    /**
+     * Method that suggests up to n next words for a phrase, best first, from the next-word index of the current model
+     *
+     * @param phrase String of words
+     * @param n number of suggestions wanted, clamped to NextWordIndex.MAX_WORDS
+     */
+    public List<String> suggestNext(String phrase, int n) {
+        return model.suggestNext(phrase, n);
+    }
+
     /**
      * Console-based test method that receives a line from the user and outputs the suggested best next word
      */
@@ -334,71 +1186,172 @@ public class POSTaggerEC {
 
         // until 'q' is entered, keep reading next line and suggesting the next word for each inputted line
         while (!line.equals("q")) {
-            ArrayList<String> sent = new ArrayList<String>(Arrays.asList(line.split("\\s")));
-            ArrayList<String> labels = new ArrayList<String>();
-            ArrayList<HashMap<String, String>> pred = new ArrayList<HashMap<String, String>>();
-            sent.add(0, "#");
-
-            ArrayList<String> currStates = new ArrayList<String>();
-            currStates.add("#");
-
-            HashMap<String, Double> currScores = new HashMap<String, Double>();
-            currScores.put("#", 0.0);
-
-            //handle sentence
-            for (int ind = 0; ind < sent.size() - 1; ind++) {
-                ArrayList<String> nextStates = new ArrayList<String>();
-                HashMap<String, Double> nextScores = new HashMap<String, Double>();
-                pred.add(new HashMap<String, String>());
-
-                for (int curInd = 0; curInd < currStates.size(); curInd++) {
-                    for (HashMap.Entry<String, Double> trans : tagProb.get(currStates.get(curInd)).entrySet()) {
-                        if (!nextStates.contains(trans.getKey()))
-                            nextStates.add(trans.getKey());
-
-                        //calculate observed score
-                        double obsScore = 0.0;
-                        if (obsProb.get(trans.getKey()).containsKey(sent.get(ind + 1)))
-                            obsScore = obsProb.get(trans.getKey()).get(sent.get(ind + 1));
-                        else
-                            obsScore = UNOBSERVED;
-
-                        double nextScore = currScores.get(currStates.get(curInd)) + trans.getValue() + obsScore;
-
-                        if (!nextScores.containsKey(trans.getKey()) || nextScore > nextScores.get(trans.getKey())) {
-                            nextScores.put(trans.getKey(), nextScore);
-                            pred.get(ind).put(trans.getKey(), currStates.get(curInd));
-                        }
+            // Tags the phrase, then looks up the most likely next part of speech and its most likely word
+            List<String> nextWords = suggestNext(line, 1);
+
+            // Outputs suggested next word
+            System.out.println("Suggested next word: " + (nextWords.isEmpty() ? null : nextWords.get(0)));
+
+            System.out.println("\nEnter a sentence/phrase WITHOUT a period, and a next word will be suggested (type 'q' to quit):");
+            line = scan.nextLine();
+        }
+    }
+
+    /**
+     * Tag transition and observation counts for one share of the training data, kept in mutable int cells so counting
+     * does no boxing
+     */
+    private static class TrainingCounts {
+        private final HashMap<String, HashMap<String, int[]>> tagCounts = new HashMap<String, HashMap<String, int[]>>();
+        private final HashMap<String, HashMap<String, int[]>> obsCounts = new HashMap<String, HashMap<String, int[]>>();
+        //tag before last -> last tag -> next tag counts, null if second-order transitions are not counted
+        private final HashMap<String, HashMap<String, HashMap<String, int[]>>> trigramCounts;
+        private final Tokenizer words = new Tokenizer();
+        private final Tokenizer tags = new Tokenizer();
+        private int skipped = 0; //sentences left out by add() for a mismatched number of tags
+
+        TrainingCounts(boolean countTrigrams) {
+            trigramCounts = countTrigrams ? new HashMap<String, HashMap<String, HashMap<String, int[]>>>() : null;
+        }
+
+        /**
+         * Counts the tag transitions and observations of parallel arrays of sentence and tag lines, leaving out (and
+         * counting, see skipped()) lines whose number of tags does not match their number of words
+         */
+        void add(String[] sentLines, String[] tagLines) {
+            for (int line = 0; line < sentLines.length; line++) {
+                words.split(sentLines[line]);
+                tags.split(tagLines[line]);
+                if (!add(words, tags)) skipped++;
+            }
+        }
+
+        /**
+         * Counts every remaining line pair of a reader, leaving out (and counting, see skipped()) lines whose number of
+         * tags does not match their number of words
+         */
+        void add(CorpusReader input) throws IOException {
+            while (input.next()) {
+                if (!add(input.words(), input.tags())) skipped++;
+            }
+        }
+
+        /**
+         * Adds the counts of other into these counts, taking over its count cells, so other must not be used after
+         */
+        TrainingCounts addAll(TrainingCounts other) {
+            addRows(other.tagCounts, tagCounts);
+            addRows(other.obsCounts, obsCounts);
+            if (trigramCounts != null) {
+                for (HashMap.Entry<String, HashMap<String, HashMap<String, int[]>>> first : other.trigramCounts.entrySet()) {
+                    HashMap<String, HashMap<String, int[]>> pairs = trigramCounts.get(first.getKey());
+                    if (pairs == null) trigramCounts.put(first.getKey(), first.getValue());
+                    else addRows(first.getValue(), pairs);
+                }
+            }
+            skipped += other.skipped;
+            return this;
+        }
+
+        /**
+         * Getter for the number of sentences left out so far for a mismatched number of tags
+         */
+        int skipped() {
+            return skipped;
+        }
+
+        /**
+         * Counts the tag transitions and observations of one split sentence and its tags. Words and tags are looked up
+         * straight off the tokenizers; only the first occurrence of each one is turned into a String. Returns false,
+         * counting nothing, if the number of tags does not match the number of words
+         */
+        boolean add(Tokenizer sent, Tokenizer tag) {
+            int numWords = sent.size();
+            if (tag.size() != numWords) return false;
+
+            for (int ind = 0; ind < numWords; ind++) {
+                row(tagCounts, tag.token(ind)); //every tag gets a transitions row, as in train()
+                HashMap<String, int[]> prev = row(tagCounts, ind == 0 ? "#" : tag.token(ind-1));
+                increment(prev, tag.token(ind));
+                increment(row(obsCounts, tag.token(ind)), sent.token(ind));
+                if (trigramCounts != null) {
+                    CharSequence first = ind < 2 ? "#" : tag.token(ind-2);
+                    HashMap<String, HashMap<String, int[]>> pairs = trigramCounts.get(first);
+                    if (pairs == null) {
+                        pairs = new HashMap<String, HashMap<String, int[]>>();
+                        trigramCounts.put(first.toString(), pairs);
                     }
+                    increment(row(pairs, ind == 0 ? "#" : tag.token(ind-1)), tag.token(ind));
                 }
-                currStates = nextStates;
-                currScores = nextScores;
             }
+            return true;
+        }
 
-            //backtrack to identify path
-            double maxScore = Double.MAX_VALUE * (-1.0);
-            String maxKey = "";
-            for (HashMap.Entry<String, Double> score : currScores.entrySet()) {
-                if (score.getValue() > maxScore) {
-                    maxScore = score.getValue();
-                    maxKey = score.getKey();
+        /**
+         * Adds these counts to tagData, obsData and trigramData maps, including the "Normalize by" totals
+         */
+        void mergeInto(HashMap<String, HashMap<String, Integer>> tagData, HashMap<String, HashMap<String, Integer>> obsData,
+                       HashMap<String, HashMap<String, HashMap<String, Integer>>> trigramData) {
+            merge(tagCounts, tagData);
+            merge(obsCounts, obsData);
+            if (trigramCounts == null) return;
+            for (HashMap.Entry<String, HashMap<String, HashMap<String, int[]>>> first : trigramCounts.entrySet()) {
+                HashMap<String, HashMap<String, Integer>> pairs = trigramData.get(first.getKey());
+                if (pairs == null) {
+                    pairs = new HashMap<String, HashMap<String, Integer>>();
+                    trigramData.put(first.getKey(), pairs);
                 }
+                merge(first.getValue(), pairs);
             }
+        }
 
-            // Gets the transition with the highest probability from the last tag in the sentence
-            String nextPOS = Collections.max(tagProb.get(maxKey).entrySet(), (HashMap.Entry<String, Double> e1, HashMap.Entry<String, Double> e2) -> e1.getValue()
-                    .compareTo(e2.getValue())).getKey();
+        private static HashMap<String, int[]> row(HashMap<String, HashMap<String, int[]>> counts, CharSequence key) {
+            HashMap<String, int[]> row = counts.get(key);
+            if (row == null) {
+                row = new HashMap<String, int[]>();
+                counts.put(key.toString(), row);
+            }
+            return row;
+        }
 
-            // Gets the word with the highest probability for the predicted next part of speech
-            String nextWord = Collections.max(obsProb.get(nextPOS).entrySet(), (HashMap.Entry<String, Double> e1, HashMap.Entry<String, Double> e2) -> e1.getValue()
-                    .compareTo(e2.getValue())).getKey();
+        private static void increment(HashMap<String, int[]> row, CharSequence key) {
+            int[] cell = row.get(key);
+            if (cell == null) row.put(key.toString(), new int[]{1});
+            else cell[0]++;
+        }
 
-            // Outputs suggested next word
-            System.out.println("Suggested next word: " + nextWord);
+        private static void addRows(HashMap<String, HashMap<String, int[]>> from, HashMap<String, HashMap<String, int[]>> to) {
+            for (HashMap.Entry<String, HashMap<String, int[]>> row : from.entrySet()) {
+                HashMap<String, int[]> toRow = to.get(row.getKey());
+                if (toRow == null) {
+                    to.put(row.getKey(), row.getValue());
+                    continue;
+                }
+                for (HashMap.Entry<String, int[]> cell : row.getValue().entrySet()) {
+                    int[] count = toRow.get(cell.getKey());
+                    if (count == null) toRow.put(cell.getKey(), cell.getValue());
+                    else count[0] += cell.getValue()[0];
+                }
+            }
+        }
 
-            System.out.println("\nEnter a sentence/phrase WITHOUT a period, and a next word will be suggested (type 'q' to quit):");
-            line = scan.nextLine();
+        private static void merge(HashMap<String, HashMap<String, int[]>> counts, HashMap<String, HashMap<String, Integer>> data) {
+            for (HashMap.Entry<String, HashMap<String, int[]>> row : counts.entrySet()) {
+                HashMap<String, Integer> dataRow = data.get(row.getKey());
+                if (dataRow == null) {
+                    dataRow = new HashMap<String, Integer>();
+                    dataRow.put("Normalize by", 0);
+                    data.put(row.getKey(), dataRow);
+                }
+
+                int total = 0;
+                for (HashMap.Entry<String, int[]> cell : row.getValue().entrySet()) {
+                    Integer count = dataRow.get(cell.getKey());
+                    dataRow.put(cell.getKey(), count == null ? cell.getValue()[0] : count + cell.getValue()[0]);
+                    total += cell.getValue()[0];
+                }
+                dataRow.put("Normalize by", dataRow.get("Normalize by") + total);
+            }
         }
     }
-
-}
\ No newline at end of file
+}
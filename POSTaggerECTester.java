@@ -1,3 +1,4 @@
+import java.util.Arrays;
 import java.util.HashMap;
 
 /**
@@ -115,6 +116,9 @@ public class POSTaggerECTester{
         String testTagPathName = "ps5/texts/simple-test-tags.txt";
 
         pt.testTagger(testSentPathName, testTagPathName);
+        pt.testTagger(testSentPathName, testTagPathName, 2);
+        pt.compareBeam(testSentPathName, testTagPathName, 2, 10.0);
+        pt.compareDecoders(testSentPathName);
 
         // Tests with Brown files
         trainSentPathName = "ps5/texts/brown-train-sentences.txt";
@@ -126,7 +130,25 @@ public class POSTaggerECTester{
         testSentPathName = "ps5/texts/brown-test-sentences.txt";
         testTagPathName = "ps5/texts/brown-test-tags.txt";
 
-        pt.testTagger(testSentPathName, testTagPathName);
+        pt.testTagger(testSentPathName, testTagPathName, true);
+        // Checks the compiled decoder against the map-based one on every test sentence
+        pt.compareDecoders(testSentPathName);
+        System.out.println("\n" + TaggerMetrics.snapshot());
+
+        // Tests a second-order (trigram) model trained on the same files
+        POSTaggerEC trigramTagger = new POSTaggerEC();
+        trigramTagger.setTrigram(true);
+        trigramTagger.setTrainingData(trainSentPathName, trainTagPathName);
+        trigramTagger.train();
+        trigramTagger.testTagger(testSentPathName, testTagPathName, true);
+
+        // Tests the suffix-based unknown-word model on the same files
+        POSTaggerEC suffixTagger = new POSTaggerEC();
+        suffixTagger.setUnknownWordModel(true);
+        suffixTagger.setTrainingData(trainSentPathName, trainTagPathName);
+        suffixTagger.train();
+        suffixTagger.testTagger(testSentPathName, testTagPathName, true);
+        System.out.println("Sentence: the glorbish snarfles zoomed quickly . | Predicted Tags: " + suffixTagger.viterbi("the glorbish snarfles zoomed quickly ."));
 
         // Tests with our own example sentences
         System.out.println("\nTesting our own example sentences");
@@ -134,6 +156,20 @@ public class POSTaggerECTester{
         System.out.println("Sentence: eat eat eat eat eat eat . | Predicted Tags: " + pt.viterbi("eat eat eat eat eat eat ."));
         System.out.println("Sentence: superman flew into the sun holding kryptonite . | Predicted Tags: " + pt.viterbi("superman flew into the sun holding kryptonite . "));
 
+        // Tests tagging several sentences in one batch
+        System.out.println("Batch: " + pt.tagBatch(Arrays.asList("eat eat eat eat eat eat .", "my favorite food is pizza .")));
+
+        // Tests the max-plus decoder, which gives the same tags as viterbi()
+        System.out.println("Max-plus (" + CompiledModel.maxPlusKernel() + "): superman flew into the sun holding kryptonite . | Predicted Tags: " + pt.maxPlusViterbi("superman flew into the sun holding kryptonite . "));
+
+        // Tests the 3 best tag sequences and the per-word confidence of a sentence
+        System.out.println("3 best: " + pt.nBest("superman flew into the sun holding kryptonite . ", 3));
+        System.out.println("Posteriors: " + pt.posteriors("superman flew into the sun holding kryptonite . "));
+
+        // Tests folding a newly annotated sentence into the trained model without retraining
+        pt.update(Arrays.asList("superman flew into the sun holding kryptonite ."), Arrays.asList("NP VD P DET N VG N ."));
+        System.out.println("After update: superman flew into the sun holding kryptonite . | Predicted Tags: " + pt.viterbi("superman flew into the sun holding kryptonite . "));
+
         // Tests tagging individual input line
         pt.tagLine();
 
@@ -0,0 +1,22 @@
+/**
+ * Plain loop implementation of MaxPlus, used when the Vector API is not available
+ */
+
+public class ScalarMaxPlus implements MaxPlus {
+    public int argMax(double[] scores, double[] column, double obs) {
+        double best = Double.NEGATIVE_INFINITY;
+        int arg = -1;
+        for (int prev = 0; prev < scores.length; prev++) {
+            double score = scores[prev] + column[prev] + obs;
+            if (score > best) {
+                best = score;
+                arg = prev;
+            }
+        }
+        return arg;
+    }
+
+    public String name() {
+        return "scalar";
+    }
+}
@@ -0,0 +1,36 @@
+import java.util.*;
+
+/**
+ * One tag sequence for a line together with its log score: the sum of the transition and observation log
+ * probabilities along the path (the unseen word penalty included), as maximized by Viterbi decoding. Returned best
+ * first by CompiledModel.nBest
+ */
+
+public class ScoredPath {
+    private final ArrayList<String> tags; //tag of each word
+    private final double score; //log score of the path
+
+    public ScoredPath(ArrayList<String> tags, double score) {
+        this.tags = tags;
+        this.score = score;
+    }
+
+    /**
+     * Getter for the tag of each word
+     */
+    public ArrayList<String> getTags() {
+        return tags;
+    }
+
+    /**
+     * Getter for the log score of the path
+     */
+    public double getScore() {
+        return score;
+    }
+
+    @Override
+    public String toString() {
+        return tags + " " + score;
+    }
+}
@@ -0,0 +1,39 @@
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/**
+ * Command-line streaming tagger for batch jobs: loads a saved model and tags a file or standard input, one sentence per
+ * line, writing word/TAG lines to a file or standard output.
+ *
+ * Usage: java StreamTagger model-file [input-file|-] [output-file|-] [threads]
+ */
+
+public class StreamTagger {
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("Usage: java StreamTagger model-file [input-file|-] [output-file|-] [threads]");
+            System.exit(2);
+        }
+
+        POSTaggerEC pt = new POSTaggerEC();
+        if (!pt.load(Paths.get(args[0]), true)) System.exit(1);
+
+        String inName = args.length > 1 ? args[1] : "-";
+        String outName = args.length > 2 ? args[2] : "-";
+        int numThreads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+        try (ReadableByteChannel in = inName.equals("-") ? Channels.newChannel(System.in)
+                : FileChannel.open(Paths.get(inName), StandardOpenOption.READ);
+             WritableByteChannel out = outName.equals("-") ? Channels.newChannel(System.out)
+                : FileChannel.open(Paths.get(outName), StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            long numLines = pt.tagStream(in, out, numThreads);
+            System.err.println("Tagged " + numLines + " lines.");
+        }
+        catch (IOException e) {
+            System.err.println("Cannot tag stream.\n" + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
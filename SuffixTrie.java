@@ -0,0 +1,354 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Unknown-word model of a compiled model in the style of TnT (Brants 2000): the tags of an unseen word are guessed from
+ * its last letters and its shape, learned from the rare words of the training data (which look most like the words a
+ * tagger has never seen). Each shape class (words with a digit, capitalized words, everything else) has its own trie
+ * of reversed suffixes up to MAX_SUFFIX letters long. Every node holds P(tag | suffix), smoothed towards the shorter
+ * suffix of its parent, P(t | s) = (P'(t | s) + theta * P(t | shorter s)) / (1 + theta), where theta is the standard
+ * deviation of the unconditioned tag probabilities.
+ *
+ * The trie is flattened into arrays once it is built: each node's children are a run of consecutive node ids sorted by
+ * letter, so walking a word is a binary search per letter with no hashing or allocation. Each node also keeps a short
+ * ranked list of candidate tags with emission-like scores log(P(t | s) / P(t)), which is all the decoder expands for an
+ * unknown word. Nodes are addressed through an int handle, as words are in an EmissionTable
+ */
+
+public class SuffixTrie {
+    public static final int RARE_COUNT = 10; //words seen at most this often in training are rare
+    public static final int MAX_SUFFIX = 10; //longest suffix looked at
+    public static final int MAX_CANDIDATES = 10; //most candidate tags kept per node
+    private static final double CANDIDATE_RATIO = 1e-3; //candidates must be at least this likely relative to the best
+    private static final int NUM_SHAPES = 3; //shape classes, each with its own trie: digit, capitalized, other
+
+    private final int[] roots; //roots[shape] = root node of that shape's trie
+    private final char[] letter; //letter[node] = last letter of the suffix the node adds to its parent
+    private final int[] firstChild; //firstChild[node] = id of the node's first child; children are sorted by letter
+    private final int[] numChildren; //numChildren[node] = number of children
+    private final int[] firstCandidate; //firstCandidate[node] = index of the node's first candidate in candTags
+    private final int[] numCandidates; //numCandidates[node] = number of candidates, best first
+    private final int[] candTags; //candidate tag ids of every node, one run per node
+    private final double[] candScores; //candidate scores, log(P(t | s) / P(t))
+
+    private SuffixTrie(int[] roots, char[] letter, int[] firstChild, int[] numChildren, int[] firstCandidate,
+                       int[] numCandidates, int[] candTags, double[] candScores) {
+        this.roots = roots;
+        this.letter = letter;
+        this.firstChild = firstChild;
+        this.numChildren = numChildren;
+        this.firstCandidate = firstCandidate;
+        this.numCandidates = numCandidates;
+        this.candTags = candTags;
+        this.candScores = candScores;
+    }
+
+    /**
+     * Builds the trie from the observation counts of a trained model
+     *
+     * @param tags tag name for each tag id
+     * @param tagIds tag name -> tag id
+     * @param obsData observations counts, with "Normalize by" totals
+     */
+    public static SuffixTrie build(String[] tags, HashMap<String, Integer> tagIds,
+                                   HashMap<String, HashMap<String, Integer>> obsData) {
+        int numTags = tags.length;
+
+        //unconditioned tag probabilities over every token, and how often each word was seen in all
+        double[] tagProbs = new double[numTags];
+        double total = 0.0;
+        HashMap<String, Integer> wordCounts = new HashMap<String, Integer>();
+        for (HashMap.Entry<String, HashMap<String, Integer>> row : obsData.entrySet()) {
+            if (row.getKey().equals("Normalize by")) continue;
+            for (HashMap.Entry<String, Integer> cell : row.getValue().entrySet()) {
+                if (cell.getKey().equals("Normalize by")) continue;
+                tagProbs[tagIds.get(row.getKey())] += cell.getValue();
+                total += cell.getValue();
+                Integer count = wordCounts.get(cell.getKey());
+                wordCounts.put(cell.getKey(), count == null ? cell.getValue() : count + cell.getValue());
+            }
+        }
+        for (int tag = 0; tag < numTags; tag++) tagProbs[tag] = total > 0 ? tagProbs[tag] / total : 0.0;
+
+        //theta = standard deviation of the unconditioned tag probabilities
+        double mean = 1.0 / numTags, variance = 0.0;
+        for (double p : tagProbs) variance += (p - mean) * (p - mean);
+        double theta = numTags > 1 ? Math.sqrt(variance / (numTags - 1)) : 0.0;
+
+        //count the tags of every suffix of every rare word
+        Node[] shapeRoots = new Node[NUM_SHAPES];
+        for (int shape = 0; shape < NUM_SHAPES; shape++) shapeRoots[shape] = new Node('\0');
+        Node all = new Node('\0'); //tags of every rare word, whatever its shape
+        for (HashMap.Entry<String, HashMap<String, Integer>> row : obsData.entrySet()) {
+            if (row.getKey().equals("Normalize by")) continue;
+            int tag = tagIds.get(row.getKey());
+            for (HashMap.Entry<String, Integer> cell : row.getValue().entrySet()) {
+                String word = cell.getKey();
+                if (word.equals("Normalize by") || wordCounts.get(word) > RARE_COUNT) continue;
+
+                all.add(tag, cell.getValue());
+                Node node = shapeRoots[shape(word)];
+                node.add(tag, cell.getValue());
+                for (int i = word.length() - 1; i >= Math.max(0, word.length() - MAX_SUFFIX); i--) {
+                    node = node.child(word.charAt(i));
+                    node.add(tag, cell.getValue());
+                }
+            }
+        }
+
+        //lay the nodes out so that every node's children are consecutive, roots first
+        ArrayList<Node> order = new ArrayList<Node>(Arrays.asList(shapeRoots));
+        for (int i = 0; i < order.size(); i++) {
+            Node node = order.get(i);
+            node.firstChild = order.size();
+            order.addAll(node.children.values()); //a TreeMap, so children come out sorted by letter
+        }
+
+        int numNodes = order.size();
+        int[] roots = new int[NUM_SHAPES];
+        for (int shape = 0; shape < NUM_SHAPES; shape++) roots[shape] = shape;
+        char[] letter = new char[numNodes];
+        int[] firstChild = new int[numNodes];
+        int[] numChildren = new int[numNodes];
+        int[] firstCandidate = new int[numNodes];
+        int[] numCandidates = new int[numNodes];
+        int[] candTags = new int[MAX_CANDIDATES * numNodes];
+        double[] candScores = new double[MAX_CANDIDATES * numNodes];
+
+        //smoothed probabilities, parents before children: the roots back off to the tags of every rare word
+        double[] allProbs = all.probabilities(null, 0.0, numTags);
+        double[][] probs = new double[numNodes][];
+        int numCands = 0;
+        for (int id = 0; id < numNodes; id++) {
+            Node node = order.get(id);
+            letter[id] = node.letter;
+            firstChild[id] = node.firstChild;
+            numChildren[id] = node.children.size();
+            for (Node child : node.children.values()) child.parent = id;
+
+            probs[id] = node.probabilities(id < NUM_SHAPES ? allProbs : probs[node.parent], theta, numTags);
+            firstCandidate[id] = numCands;
+            numCandidates[id] = candidates(probs[id], tagProbs, candTags, candScores, numCands);
+            numCands += numCandidates[id];
+
+            //a node's probabilities are only needed until its last child has been done
+            if (node.children.isEmpty()) probs[id] = null;
+            if (id >= NUM_SHAPES && id == firstChild[node.parent] + numChildren[node.parent] - 1) {
+                probs[node.parent] = null;
+            }
+        }
+
+        return new SuffixTrie(roots, letter, firstChild, numChildren, firstCandidate, numCandidates,
+                Arrays.copyOf(candTags, numCands), Arrays.copyOf(candScores, numCands));
+    }
+
+    /**
+     * Writes the best tags of a node's distribution from index start of candTags and candScores, best first (lowest id
+     * on ties), and returns how many there are
+     */
+    private static int candidates(double[] probs, double[] tagProbs, int[] candTags, double[] candScores, int start) {
+        int count = 0;
+        for (int tag = 0; tag < probs.length; tag++) {
+            if (probs[tag] <= 0.0 || tagProbs[tag] <= 0.0) continue;
+            if (count == MAX_CANDIDATES && probs[tag] <= probs[candTags[start + count - 1]]) continue;
+
+            //insertion into the ranking, dropping the last one if it is full
+            int pos = Math.min(count, MAX_CANDIDATES - 1);
+            while (pos > 0 && probs[candTags[start + pos - 1]] < probs[tag]) {
+                candTags[start + pos] = candTags[start + pos - 1];
+                pos--;
+            }
+            candTags[start + pos] = tag;
+            count = Math.min(count + 1, MAX_CANDIDATES);
+        }
+
+        //drop tags far less likely than the best
+        double floor = count == 0 ? 0.0 : probs[candTags[start]] * CANDIDATE_RATIO;
+        int kept = 0;
+        while (kept < count && probs[candTags[start + kept]] >= floor) {
+            candScores[start + kept] = Math.log(probs[candTags[start + kept]] / tagProbs[candTags[start + kept]]);
+            kept++;
+        }
+        return kept;
+    }
+
+    /**
+     * Shape class of a word: 0 if it has a digit, 1 if it starts with a capital letter, 2 otherwise
+     */
+    private static int shape(CharSequence word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (Character.isDigit(word.charAt(i))) return 0;
+        }
+        return word.length() > 0 && Character.isUpperCase(word.charAt(0)) ? 1 : 2;
+    }
+
+    /**
+     * Handle of the node for the longest suffix of the word seen among the rare words of its shape (the shape's root if
+     * not even its last letter was seen). Never fails: every word gets a node
+     *
+     * @param word a String or any other CharSequence, such as a Tokenizer token
+     */
+    public int find(CharSequence word) {
+        int node = roots[shape(word)];
+        for (int i = word.length() - 1; i >= Math.max(0, word.length() - MAX_SUFFIX); i--) {
+            int child = child(node, word.charAt(i));
+            if (child < 0) break;
+            node = child;
+        }
+        return node;
+    }
+
+    /**
+     * Child of a node for the given letter, or -1 if there is none
+     */
+    private int child(int node, char c) {
+        int low = firstChild[node], high = low + numChildren[node] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (letter[mid] < c) low = mid + 1;
+            else if (letter[mid] > c) high = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    /**
+     * Number of candidate tags of the node with the given handle
+     */
+    public int numTags(int handle) {
+        return numCandidates[handle];
+    }
+
+    /**
+     * Id of the i-th candidate tag of the node with the given handle, best first
+     */
+    public int tag(int handle, int i) {
+        return candTags[firstCandidate[handle] + i];
+    }
+
+    /**
+     * Score of the i-th candidate tag of the node with the given handle, log(P(t | suffix) / P(t)): the observation log
+     * probability of the word given the tag up to a term that is the same for every tag
+     */
+    public double score(int handle, int i) {
+        return candScores[firstCandidate[handle] + i];
+    }
+
+    /**
+     * Getter for the number of trie nodes
+     */
+    public int numNodes() {
+        return letter.length;
+    }
+
+    /**
+     * Writes the trie as the node arrays followed by the candidate arrays
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(letter.length);
+        for (int node = 0; node < letter.length; node++) {
+            out.writeChar(letter[node]);
+            out.writeInt(firstChild[node]);
+            out.writeInt(numChildren[node]);
+            out.writeInt(firstCandidate[node]);
+            out.writeInt(numCandidates[node]);
+        }
+        out.writeInt(candTags.length);
+        for (int i = 0; i < candTags.length; i++) {
+            out.writeInt(candTags[i]);
+            out.writeDouble(candScores[i]);
+        }
+    }
+
+    /**
+     * Reads a trie written by write() for a model with numTags tags, advancing the buffer past it
+     */
+    public static SuffixTrie read(ByteBuffer in, int numTags) throws IOException {
+        int numNodes = CompiledModel.readCount(in, 18);
+        char[] letter = new char[numNodes];
+        int[] firstChild = new int[numNodes];
+        int[] numChildren = new int[numNodes];
+        int[] firstCandidate = new int[numNodes];
+        int[] numCandidates = new int[numNodes];
+        for (int node = 0; node < numNodes; node++) {
+            letter[node] = in.getChar();
+            firstChild[node] = in.getInt();
+            numChildren[node] = in.getInt();
+            firstCandidate[node] = in.getInt();
+            numCandidates[node] = in.getInt();
+        }
+        int numCands = CompiledModel.readCount(in, 12);
+        int[] candTags = new int[numCands];
+        double[] candScores = new double[numCands];
+        for (int i = 0; i < numCands; i++) {
+            candTags[i] = in.getInt();
+            candScores[i] = in.getDouble();
+            if (candTags[i] < 0 || candTags[i] >= numTags) throw new IOException("Corrupt suffix trie: candidate " + i);
+        }
+        if (numNodes < NUM_SHAPES) throw new IOException("Corrupt suffix trie: " + numNodes + " nodes");
+        for (int node = 0; node < numNodes; node++) {
+            //children and candidates are contiguous ranges of the node and candidate arrays
+            if (firstChild[node] < 0 || numChildren[node] < 0 || firstChild[node] > numNodes - numChildren[node]
+                    || firstCandidate[node] < 0 || numCandidates[node] < 0
+                    || firstCandidate[node] > numCands - numCandidates[node]) {
+                throw new IOException("Corrupt suffix trie: node " + node);
+            }
+        }
+
+        int[] roots = new int[NUM_SHAPES];
+        for (int shape = 0; shape < NUM_SHAPES; shape++) roots[shape] = shape;
+        return new SuffixTrie(roots, letter, firstChild, numChildren, firstCandidate, numCandidates, candTags,
+                candScores);
+    }
+
+    /**
+     * Node of the trie while it is being counted: sparse tag counts and children by letter
+     */
+    private static class Node {
+        final char letter;
+        final TreeMap<Character, Node> children = new TreeMap<Character, Node>();
+        final HashMap<Integer, int[]> counts = new HashMap<Integer, int[]>(4);
+        int total = 0;
+        int firstChild;
+        int parent;
+
+        Node(char letter) {
+            this.letter = letter;
+        }
+
+        void add(int tag, int count) {
+            int[] cell = counts.get(tag);
+            if (cell == null) counts.put(tag, new int[]{count});
+            else cell[0] += count;
+            total += count;
+        }
+
+        Node child(char c) {
+            Node child = children.get(c);
+            if (child == null) {
+                child = new Node(c);
+                children.put(c, child);
+            }
+            return child;
+        }
+
+        /**
+         * P(tag | this suffix) smoothed towards the parent's distribution with weight theta (the parent's
+         * distribution as is if this node has no counts; the plain relative frequencies if there is no parent)
+         */
+        double[] probabilities(double[] parent, double theta, int numTags) {
+            double[] probs = new double[numTags];
+            if (total == 0) {
+                if (parent != null) System.arraycopy(parent, 0, probs, 0, numTags);
+                return probs;
+            }
+            for (HashMap.Entry<Integer, int[]> cell : counts.entrySet()) {
+                probs[cell.getKey()] = (double) cell.getValue()[0] / total;
+            }
+            if (parent == null) return probs;
+            for (int tag = 0; tag < numTags; tag++) probs[tag] = (probs[tag] + theta * parent[tag]) / (1.0 + theta);
+            return probs;
+        }
+    }
+}
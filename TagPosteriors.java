@@ -0,0 +1,89 @@
+import java.util.*;
+
+/**
+ * Posterior marginals of a decoded line, from forward-backward over the same lattice Viterbi decoding searches:
+ * for every word and tag, the share of the total score of all tag sequences carried by the sequences that give the
+ * word that tag. The highest share of a word is a confidence score for its tag, e.g. to send sentences with an
+ * uncertain word to human review. Unknown words are scored with the unseen word penalty (or the suffix model's
+ * guesses), so their shares are relative to that rather than true probabilities
+ */
+
+public class TagPosteriors {
+    private final String[] tags; //tag name for each tag id, the model's own
+    private final double[][] probs; //probs[ind][tag] = posterior of word ind having the tag
+    private final double logLikelihood; //log of the summed score of every path
+
+    TagPosteriors(String[] tags, double[][] probs, double logLikelihood) {
+        this.tags = tags;
+        this.probs = probs;
+        this.logLikelihood = logLikelihood;
+    }
+
+    /**
+     * Getter for the number of words
+     */
+    public int numWords() {
+        return probs.length;
+    }
+
+    /**
+     * Log of the summed score of every tag sequence for the line, negative infinity if no tag sequence can produce it
+     */
+    public double logLikelihood() {
+        return logLikelihood;
+    }
+
+    /**
+     * Posterior probability of word ind having the given tag (0.0 for a tag the model does not have)
+     */
+    public double probability(int ind, String tag) {
+        for (int id = 0; id < tags.length; id++) {
+            if (tags[id].equals(tag)) return probs[ind][id];
+        }
+        return 0.0;
+    }
+
+    /**
+     * Tag of word ind with the highest posterior (lowest id on ties), or null if no tag sequence can produce the line
+     */
+    public String bestTag(int ind) {
+        int best = bestId(ind);
+        return best < 0 ? null : tags[best];
+    }
+
+    /**
+     * Posterior of the best tag of word ind: how confident the model is in it, 0.0 if no tag sequence can produce the
+     * line
+     */
+    public double confidence(int ind) {
+        int best = bestId(ind);
+        return best < 0 ? 0.0 : probs[ind][best];
+    }
+
+    /**
+     * The best tag of every word (marginal posterior decoding, which can differ from the Viterbi path)
+     */
+    public ArrayList<String> bestTags() {
+        ArrayList<String> labels = new ArrayList<String>(probs.length);
+        for (int ind = 0; ind < probs.length; ind++) labels.add(bestTag(ind));
+        return labels;
+    }
+
+    private int bestId(int ind) {
+        int best = -1;
+        for (int tag = 0; tag < tags.length; tag++) {
+            if (probs[ind][tag] > 0.0 && (best < 0 || probs[ind][tag] > probs[ind][best])) best = tag;
+        }
+        return best;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder("[");
+        for (int ind = 0; ind < probs.length; ind++) {
+            if (ind > 0) s.append(", ");
+            s.append(bestTag(ind)).append(String.format(" %.3f", confidence(ind)));
+        }
+        return s.append("]").toString();
+    }
+}
@@ -0,0 +1,270 @@
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Process-wide counters and latency histograms for training, decoding and evaluation. All of them are LongAdders, so
+ * recording from many decoding threads at once does not contend on a shared cache line. Metrics are exported through
+ * JMX (see TaggerMetricsMXBean) and as a plain-text snapshot().
+ *
+ * Running with -Dtagger.metrics=false turns metrics off entirely: ENABLED is a static final constant, so the JIT
+ * compiles every recording call (and every now() timestamp) down to nothing
+ */
+
+public class TaggerMetrics implements TaggerMetricsMXBean {
+    public static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty("tagger.metrics"));
+
+    private static final int[] LENGTH_BOUNDS = {5, 10, 20, 40}; //sentence length buckets: 1-4, 5-9, 10-19, 20-39, 40+
+
+    private static final LongAdder sentences = new LongAdder(); //sentences decoded
+    private static final LongAdder words = new LongAdder(); //words decoded
+    private static final LongAdder unknownWords = new LongAdder(); //words never observed in training
+    private static final LongAdder fallbacks = new LongAdder(); //known words expanded over every tag
+    private static final LongAdder guessFallbacks = new LongAdder(); //suffix-guessed unknown words, likewise
+    private static final Histogram latticeWidth = new Histogram(); //live states expanded from per word
+    private static final Histogram[] decodeLatency = new Histogram[LENGTH_BOUNDS.length + 1]; //nanos, by length
+    private static final ConcurrentHashMap<String, Histogram> phases = new ConcurrentHashMap<String, Histogram>(); //nanos
+
+    static {
+        for (int i = 0; i < decodeLatency.length; i++) decodeLatency[i] = new Histogram();
+
+        if (ENABLED) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new TaggerMetrics(),
+                        new ObjectName("POSTagger:type=TaggerMetrics"));
+            }
+            catch (JMException e) {
+                System.err.println("Cannot register metrics MBean.\n" + e.getMessage());
+            }
+        }
+    }
+
+    private TaggerMetrics() {
+    }
+
+    /**
+     * Current time in nanoseconds for timing a phase, or 0 when metrics are off
+     */
+    public static long now() {
+        return ENABLED ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Records one lattice step: the number of live states expanded from, and whether the word was unknown
+     */
+    public static void recordStep(int width, boolean unknown) {
+        if (!ENABLED) return;
+        latticeWidth.record(width);
+        if (unknown) unknownWords.increment();
+    }
+
+    /**
+     * Records a word whose candidate tags were all unreachable, so every tag was expanded: a known word's observed
+     * tags, or, with guessed set, the tags the unknown-word model guessed from an unknown word's suffix
+     */
+    public static void recordFallback(boolean guessed) {
+        if (!ENABLED) return;
+        if (guessed) guessFallbacks.increment();
+        else fallbacks.increment();
+    }
+
+    /**
+     * Records the decoding of one sentence
+     *
+     * @param numWords length of the sentence
+     * @param nanos decoding time
+     */
+    public static void recordDecode(int numWords, long nanos) {
+        if (!ENABLED) return;
+        sentences.increment();
+        words.add(numWords);
+        int bucket = 0;
+        while (bucket < LENGTH_BOUNDS.length && numWords >= LENGTH_BOUNDS[bucket]) bucket++;
+        decodeLatency[bucket].record(nanos);
+    }
+
+    /**
+     * Records time spent in a named phase of training or evaluation, e.g. "train.read"
+     *
+     * @param phase name of the phase
+     * @param nanos time spent
+     */
+    public static void recordPhase(String phase, long nanos) {
+        if (!ENABLED) return;
+        Histogram histogram = phases.get(phase);
+        if (histogram == null) {
+            phases.putIfAbsent(phase, new Histogram());
+            histogram = phases.get(phase);
+        }
+        histogram.record(nanos);
+    }
+
+    /**
+     * Plain-text snapshot of every metric
+     */
+    public static String snapshot() {
+        StringBuilder out = new StringBuilder("Tagger metrics" + (ENABLED ? "" : " (disabled)") + ":\n");
+        long numWords = words.sum();
+        long numUnknown = unknownWords.sum();
+        out.append("decode: ").append(sentences.sum()).append(" sentences, ").append(numWords).append(" words, ")
+                .append(numUnknown).append(" unknown (")
+                .append(numWords == 0 ? 0.0 : Math.round(1000.0 * numUnknown / numWords) / 10.0).append("%), ")
+                .append(fallbacks.sum()).append(" fallback expansions, ")
+                .append(guessFallbacks.sum()).append(" guessed fallback expansions\n");
+        out.append("lattice width: ").append(latticeWidth.summary(1)).append('\n');
+
+        out.append("decode latency (us) by sentence length:\n");
+        for (int i = 0; i < decodeLatency.length; i++) {
+            String lengths = i == 0 ? "1-" + (LENGTH_BOUNDS[0] - 1)
+                    : i == LENGTH_BOUNDS.length ? LENGTH_BOUNDS[i - 1] + "+"
+                    : LENGTH_BOUNDS[i - 1] + "-" + (LENGTH_BOUNDS[i] - 1);
+            out.append("  ").append(lengths).append(": ").append(decodeLatency[i].summary(1000)).append('\n');
+        }
+
+        out.append("phases (ms):\n");
+        for (Map.Entry<String, Histogram> phase : new TreeMap<String, Histogram>(phases).entrySet()) {
+            out.append("  ").append(phase.getKey()).append(": total ")
+                    .append(Math.round(phase.getValue().sum() / 1e6)).append(", ")
+                    .append(phase.getValue().summary(1000000)).append('\n');
+        }
+        return out.toString();
+    }
+
+    /**
+     * Clears every metric, e.g. between benchmark runs
+     */
+    public static void clear() {
+        sentences.reset();
+        words.reset();
+        unknownWords.reset();
+        fallbacks.reset();
+        guessFallbacks.reset();
+        latticeWidth.reset();
+        for (Histogram histogram : decodeLatency) histogram.reset();
+        phases.clear();
+    }
+
+    public long getSentencesDecoded() {
+        return sentences.sum();
+    }
+
+    public long getWordsDecoded() {
+        return words.sum();
+    }
+
+    public long getUnknownWords() {
+        return unknownWords.sum();
+    }
+
+    public long getFallbackExpansions() {
+        return fallbacks.sum();
+    }
+
+    public long getGuessFallbackExpansions() {
+        return guessFallbacks.sum();
+    }
+
+    public double getMeanLatticeWidth() {
+        return latticeWidth.mean();
+    }
+
+    public double getMeanDecodeMicros() {
+        long count = 0, sum = 0;
+        for (Histogram histogram : decodeLatency) {
+            count += histogram.count();
+            sum += histogram.sum();
+        }
+        return count == 0 ? 0.0 : sum / 1000.0 / count;
+    }
+
+    public Map<String, Long> getPhaseMillis() {
+        TreeMap<String, Long> millis = new TreeMap<String, Long>();
+        for (Map.Entry<String, Histogram> phase : phases.entrySet()) {
+            millis.put(phase.getKey(), Math.round(phase.getValue().sum() / 1e6));
+        }
+        return millis;
+    }
+
+    public String getSnapshot() {
+        return snapshot();
+    }
+
+    public void reset() {
+        clear();
+    }
+
+    /**
+     * Histogram of non-negative values in power-of-two buckets: bucket b holds values below 2^b (and at least
+     * 2^(b-1)), so percentiles are reported as bucket upper bounds, within a factor of two
+     */
+    private static class Histogram {
+        private final LongAdder[] buckets = new LongAdder[64];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+        Histogram() {
+            for (int b = 0; b < buckets.length; b++) buckets[b] = new LongAdder();
+        }
+
+        void record(long value) {
+            value = Math.max(value, 0L);
+            buckets[Math.min(64 - Long.numberOfLeadingZeros(value), 63)].increment();
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        long sum() {
+            return sum.sum();
+        }
+
+        double mean() {
+            long n = count.sum();
+            return n == 0 ? 0.0 : (double) sum.sum() / n;
+        }
+
+        /**
+         * Upper bound of the bucket holding the q-quantile, capped at the largest value seen
+         */
+        long percentile(double q) {
+            long[] counts = new long[buckets.length];
+            long n = 0;
+            for (int b = 0; b < buckets.length; b++) n += counts[b] = buckets[b].sum();
+            long rank = (long) Math.ceil(q * n);
+            long seen = 0;
+            for (int b = 0; b < buckets.length; b++) {
+                seen += counts[b];
+                if (seen >= rank && seen > 0) return Math.min(b == 63 ? Long.MAX_VALUE : (1L << b) - 1, max.get());
+            }
+            return 0L;
+        }
+
+        /**
+         * Count, mean, p50, p99 and max, with values divided by scale
+         */
+        String summary(long scale) {
+            long n = count.sum();
+            if (n == 0) return "none";
+            return "count " + n + ", mean " + Math.round(10.0 * mean() / scale) / 10.0
+                    + ", p50 <= " + Math.round((double) percentile(0.5) / scale)
+                    + ", p99 <= " + Math.round((double) percentile(0.99) / scale)
+                    + ", max " + Math.round((double) max.get() / scale);
+        }
+
+        void reset() {
+            for (LongAdder bucket : buckets) bucket.reset();
+            count.reset();
+            sum.reset();
+            max.reset();
+        }
+    }
+}
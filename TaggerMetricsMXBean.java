@@ -0,0 +1,61 @@
+import java.util.Map;
+
+/**
+ * JMX view of TaggerMetrics, registered as "POSTagger:type=TaggerMetrics" on the platform MBean server
+ */
+
+public interface TaggerMetricsMXBean {
+    /**
+     * Getter for the number of sentences decoded
+     */
+    long getSentencesDecoded();
+
+    /**
+     * Getter for the number of words decoded
+     */
+    long getWordsDecoded();
+
+    /**
+     * Getter for the number of decoded words that were never observed in training (every tag scored with the unseen
+     * word penalty, or by suffix with the unknown-word model)
+     */
+    long getUnknownWords();
+
+    /**
+     * Getter for the number of known words none of whose observed tags was reachable, so every tag was expanded with
+     * the unseen word penalty
+     */
+    long getFallbackExpansions();
+
+    /**
+     * Getter for the number of unknown words none of whose tags guessed by the unknown-word model was reachable, so
+     * every tag was expanded with the unseen word penalty. Counted apart from getFallbackExpansions(), which only
+     * covers known words
+     */
+    long getGuessFallbackExpansions();
+
+    /**
+     * Getter for the mean number of live lattice states expanded from per word
+     */
+    double getMeanLatticeWidth();
+
+    /**
+     * Getter for the mean decoding latency per sentence, in microseconds
+     */
+    double getMeanDecodeMicros();
+
+    /**
+     * Getter for the total time spent in each training and evaluation phase, in milliseconds
+     */
+    Map<String, Long> getPhaseMillis();
+
+    /**
+     * Getter for the plain-text snapshot of every metric
+     */
+    String getSnapshot();
+
+    /**
+     * Clears every metric
+     */
+    void reset();
+}
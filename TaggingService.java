@@ -0,0 +1,200 @@
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Thread-safe tagging front end for servers: decodes against an immutable CompiledModel held in an atomic reference.
+ * Decoding takes no locks and keeps all of its state on the calling thread, so any number of platform or virtual
+ * threads can tag at once. A retrained or updated model is built off to the side and then published in one step;
+ * requests that are already decoding finish on the model they started with
+ */
+
+public class TaggingService {
+    private final AtomicReference<CompiledModel> model; //model new requests decode against
+    private POSTaggerEC trainer; //tagger holding the training counts of the served model, null if it has none
+    private volatile DecodeCache cache; //optional cache of decoded sentences, null if off
+
+    public TaggingService(CompiledModel model) {
+        if (model == null) throw new IllegalArgumentException("No model to serve");
+        this.model = new AtomicReference<CompiledModel>(model);
+    }
+
+    private TaggingService(POSTaggerEC trainer) {
+        this(trainer.getModel());
+        this.trainer = trainer;
+    }
+
+    /**
+     * Creates a service over a freshly trained model
+     *
+     * @param sentFile sentence training file
+     * @param tagFile tags training file
+     * @param numThreads number of threads to train with
+     */
+    public static TaggingService train(String sentFile, String tagFile, int numThreads) {
+        return new TaggingService(trainTagger(sentFile, tagFile, numThreads));
+    }
+
+    /**
+     * Creates a service over a saved model snapshot, or returns null if it cannot be loaded
+     *
+     * @param path snapshot file
+     * @param mapped whether to keep the observation table in the mapped file
+     */
+    public static TaggingService load(Path path, boolean mapped) {
+        POSTaggerEC pt = new POSTaggerEC();
+        return pt.load(path, mapped) ? new TaggingService(pt.getModel()) : null;
+    }
+
+    /**
+     * Tags a sentence against the current model, through the decode cache if one is enabled
+     *
+     * @param line String of words
+     */
+    public List<String> tag(String line) {
+        DecodeCache current = cache;
+        return current == null ? model.get().viterbi(line) : current.tag(model.get(), line);
+    }
+
+    /**
+     * Tags a batch of sentences against the current model, returning their tags in input order (see
+     * CompiledModel.tagBatch), through the decode cache line by line if one is enabled
+     *
+     * @param lines sentences to tag
+     */
+    public List<ArrayList<String>> tagBatch(List<String> lines) {
+        CompiledModel current = model.get();
+        DecodeCache currentCache = cache;
+        if (currentCache == null) return current.tagBatch(lines);
+
+        ArrayList<ArrayList<String>> labels = new ArrayList<ArrayList<String>>(lines.size());
+        for (String line : lines) labels.add(currentCache.tag(current, line));
+        return labels;
+    }
+
+    /**
+     * The n best tag sequences for a sentence against the current model, with their log scores, best first
+     *
+     * @param line sentence to tag
+     * @param n number of tag sequences wanted
+     */
+    public List<ScoredPath> nBest(String line, int n) {
+        return model.get().nBest(line, n);
+    }
+
+    /**
+     * Posterior probabilities of every tag of every word of a sentence against the current model, for per-word
+     * confidence scores
+     *
+     * @param line sentence to tag
+     */
+    public TagPosteriors posteriors(String line) {
+        return model.get().posteriors(line);
+    }
+
+    /**
+     * Tags a sentence against the current model with beam-pruned decoding
+     *
+     * @param line String of words
+     * @param beamWidth maximum number of states kept per word
+     * @param beamMargin maximum log score distance from the best state kept per word
+     */
+    public List<String> tag(String line, int beamWidth, double beamMargin) {
+        return model.get().viterbi(line, beamWidth, beamMargin);
+    }
+
+    /**
+     * Suggests up to n next words for a phrase against the current model, best first
+     *
+     * @param phrase String of words
+     * @param n number of suggestions wanted, clamped to NextWordIndex.MAX_WORDS
+     */
+    public List<String> suggestNext(String phrase, int n) {
+        return model.get().suggestNext(phrase, n);
+    }
+
+    /**
+     * Puts a bounded LRU cache of decoded sentences in front of tag(line); cached tags are only ever returned for the
+     * model they were decoded with, and the cache is emptied whenever a new model is published
+     *
+     * @param maxEntries maximum number of sentences kept
+     */
+    public void enableCache(int maxEntries) {
+        cache = new DecodeCache(maxEntries);
+    }
+
+    /**
+     * Getter for the decode cache, e.g. for its hit/miss statistics, or null if it is off
+     */
+    public DecodeCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Getter for the model currently being served, e.g. to tag several sentences against one consistent model
+     */
+    public CompiledModel getModel() {
+        return model.get();
+    }
+
+    /**
+     * Publishes a new model; requests that start after this call use it
+     *
+     * @param next model to serve
+     */
+    public synchronized void publish(CompiledModel next) {
+        if (next == null) throw new IllegalArgumentException("No model to serve");
+        model.set(next);
+        trainer = null; //the counts no longer describe the served model
+        clearCache();
+    }
+
+    /**
+     * Trains a new model on the given files while the current one keeps serving, then publishes it
+     *
+     * @param sentFile sentence training file
+     * @param tagFile tags training file
+     * @param numThreads number of threads to train with
+     */
+    public void retrain(String sentFile, String tagFile, int numThreads) {
+        POSTaggerEC next = trainTagger(sentFile, tagFile, numThreads);
+        synchronized (this) {
+            model.set(next.getModel());
+            trainer = next;
+            clearCache();
+        }
+    }
+
+    /**
+     * Folds newly annotated sentences into the served model without retraining (see POSTaggerEC.update) and publishes
+     * the result. Only a service created by train() has the counts to update
+     *
+     * @param sentences new sentences, words separated by spaces
+     * @param tags tags for each sentence, separated by spaces
+     * @return whether the model was updated
+     */
+    public synchronized boolean update(List<String> sentences, List<String> tags) {
+        if (trainer == null) {
+            System.err.println("Cannot update model.\nThe served model has no training counts.");
+            return false;
+        }
+        if (!trainer.update(sentences, tags)) return false;
+        model.set(trainer.getModel());
+        clearCache();
+        return true;
+    }
+
+    private void clearCache() {
+        DecodeCache current = cache;
+        if (current != null) current.clear();
+    }
+
+    private static POSTaggerEC trainTagger(String sentFile, String tagFile, int numThreads) {
+        POSTaggerEC pt = new POSTaggerEC();
+        pt.setTrainingData(sentFile, tagFile);
+        if (numThreads <= 1) pt.train();
+        else pt.train(numThreads);
+        if (pt.getModel() == null) throw new IllegalStateException("Training on '" + sentFile + "' and '" + tagFile + "' failed");
+        return pt;
+    }
+}
@@ -0,0 +1,178 @@
+import java.util.Arrays;
+
+/**
+ * Reusable whitespace tokenizer with the same result as line.split("\\s"): every whitespace character ends a token (so
+ * two in a row give an empty token between them), trailing empty tokens are dropped, and a line without whitespace is
+ * one token. Instead of running a regex and allocating a String per token, it scans the characters once and records
+ * the bounds of each token over its own (or the caller's) char buffer, which is reused from line to line.
+ *
+ * token(i) is a CharSequence view that hashes and compares like the equal String, so it can look words up in a
+ * HashMap keyed by Strings, or in an EmissionTable, without creating one. The view is reused by the next call to
+ * token(), so it must not be kept. A tokenizer is not thread-safe
+ */
+
+public class Tokenizer {
+    private char[] text = new char[0]; //characters of the current line, possibly the caller's buffer
+    private char[] own = text; //buffer that split(CharSequence) copies lines into, grown on demand
+    private int[] starts = new int[16]; //starts[i] = index of the first character of token i
+    private int[] ends = new int[16]; //ends[i] = index just past the last character of token i
+    private int numTokens = 0;
+    private final Token view = new Token();
+
+    /**
+     * Splits a line held in a String or any other CharSequence, copying its characters into the reused buffer
+     *
+     * @param line line to split
+     * @return number of tokens
+     */
+    public int split(CharSequence line) {
+        int length = line.length();
+        if (length > own.length) own = new char[Math.max(length, 2 * own.length)];
+        if (line instanceof String) ((String) line).getChars(0, length, own, 0);
+        else for (int i = 0; i < length; i++) own[i] = line.charAt(i);
+        return split(own, length);
+    }
+
+    /**
+     * Splits the first length characters of a buffer in place; the buffer must not change while the tokens are used
+     *
+     * @param chars buffer holding the line
+     * @param length length of the line
+     * @return number of tokens
+     */
+    public int split(char[] chars, int length) {
+        text = chars;
+        numTokens = 0;
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            if (isSpace(chars[i])) {
+                add(start, i);
+                start = i + 1;
+            }
+        }
+        add(start, length);
+
+        //like split(), drop trailing empty tokens, except for the single token of an empty line
+        if (numTokens > 1 || length > 0) {
+            while (numTokens > 0 && starts[numTokens - 1] == ends[numTokens - 1]) numTokens--;
+        }
+        return numTokens;
+    }
+
+    /**
+     * Getter for the number of tokens of the last line split
+     */
+    public int size() {
+        return numTokens;
+    }
+
+    /**
+     * View of token i of the last line split, valid until the next call to token() or split()
+     */
+    public CharSequence token(int i) {
+        if (i < 0 || i >= numTokens) throw new IndexOutOfBoundsException("Token " + i + " of " + numTokens);
+        view.start = starts[i];
+        view.end = ends[i];
+        view.hash = 0;
+        return view;
+    }
+
+    /**
+     * Token i of the last line split as a new String
+     */
+    public String tokenString(int i) {
+        if (i < 0 || i >= numTokens) throw new IndexOutOfBoundsException("Token " + i + " of " + numTokens);
+        return new String(text, starts[i], ends[i] - starts[i]);
+    }
+
+    /**
+     * The tokens of the last line split joined by single spaces: a line that splits into the same tokens (a single space
+     * if there are none)
+     */
+    public String joined() {
+        if (numTokens == 0) return " ";
+        StringBuilder line = new StringBuilder(ends[numTokens - 1] - starts[0]);
+        for (int i = 0; i < numTokens; i++) {
+            if (i > 0) line.append(' ');
+            line.append(text, starts[i], ends[i] - starts[i]);
+        }
+        return line.toString();
+    }
+
+    /**
+     * Whether token i of the last line split has the same characters as the given String
+     */
+    public boolean tokenEquals(int i, String s) {
+        int start = starts[i], length = ends[i] - start;
+        if (s == null || s.length() != length) return false;
+        for (int j = 0; j < length; j++) {
+            if (text[start + j] != s.charAt(j)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Whether a character is matched by the regex \s: a space, or a control character from tab to carriage return
+     */
+    public static boolean isSpace(char c) {
+        return c == ' ' || (c >= '\t' && c <= '\r');
+    }
+
+    private void add(int start, int end) {
+        if (numTokens == starts.length) {
+            starts = Arrays.copyOf(starts, 2 * numTokens);
+            ends = Arrays.copyOf(ends, 2 * numTokens);
+        }
+        starts[numTokens] = start;
+        ends[numTokens] = end;
+        numTokens++;
+    }
+
+    /**
+     * Window onto one token of the buffer. hashCode() is String.hashCode() of the same characters and equals() is true
+     * for any CharSequence with the same characters, so a HashMap<String, V> finds the entry of the equal String
+     */
+    private class Token implements CharSequence {
+        int start;
+        int end;
+        int hash; //cached hash, 0 if not computed yet
+
+        public int length() {
+            return end - start;
+        }
+
+        public char charAt(int index) {
+            return text[start + index];
+        }
+
+        public CharSequence subSequence(int from, int to) {
+            return new String(text, start + from, to - from);
+        }
+
+        @Override
+        public int hashCode() {
+            int h = hash;
+            if (h == 0) {
+                for (int i = start; i < end; i++) h = 31 * h + text[i];
+                hash = h;
+            }
+            return h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CharSequence)) return false;
+            CharSequence other = (CharSequence) o;
+            if (other.length() != end - start) return false;
+            for (int i = 0; i < end - start; i++) {
+                if (other.charAt(i) != text[start + i]) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return new String(text, start, end - start);
+        }
+    }
+}
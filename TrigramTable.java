@@ -0,0 +1,281 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Second-order tag transitions of a compiled model: the log probability of each tag given the two tags before it,
+ * smoothed by deleted interpolation (Brants, TnT) between the trigram, bigram and unigram estimates,
+ * P(t3 | t1, t2) = l3 * P'(t3 | t1, t2) + l2 * P'(t3 | t2) + l1 * P'(t3), with the weights l1, l2, l3 estimated from
+ * the training counts themselves (each weight starting from one vote, see build). An estimate whose counts are missing
+ * counts as 0, so through the unigram term every tag that occurs in training can follow any two tags, even after a
+ * bigram that was never seen.
+ *
+ * States of the second-order lattice are (previous tag, tag) pairs: every pair the interpolated rows give a
+ * probability to (about numTags^2 of them), plus the ("#", "#") start pair. Each pair has a row of scores over the
+ * next tag; pairs whose trigrams were never seen share the interpolated bigram row of their last tag, so only pairs
+ * with trigram counts cost a row of their own. Decoding only creates the pair states the words of a sentence expand,
+ * so the lattice stays small even though the table has about numTags^2 pairs
+ */
+
+public class TrigramTable {
+    private final int[][] pairOf; //pairOf[prev][tag] = id of the pair state, -1 if tag can never follow prev
+    private final int[] pairPrev; //pairPrev[pair] = tag before last
+    private final int[] pairTag; //pairTag[pair] = last tag
+    private final int startPair; //id of the ("#", "#") pair every sentence starts from
+
+    private final double[][] backoff; //backoff[tag][next] = log(l1 * P'(next) + l2 * P'(next | tag))
+    private final double[][] rows; //rows[pair][next] = interpolated log probability, shared with backoff if no trigrams
+    private final double[] lambdas; //interpolation weights l1, l2, l3
+
+    private TrigramTable(int[][] pairOf, int[] pairPrev, int[] pairTag, int startPair, double[][] backoff,
+                         double[][] rows, double[] lambdas) {
+        this.pairOf = pairOf;
+        this.pairPrev = pairPrev;
+        this.pairTag = pairTag;
+        this.startPair = startPair;
+        this.backoff = backoff;
+        this.rows = rows;
+        this.lambdas = lambdas;
+    }
+
+    /**
+     * Builds the table of a compiled model from the training counts
+     *
+     * @param tags tag name for each tag id
+     * @param tagIds tag name -> tag id
+     * @param start id of the "#" start state
+     * @param succ succ[prev] = ids of tags reachable from prev, ascending
+     * @param tagData tag transitions counts, with "Normalize by" totals
+     * @param trigramData second-order counts: tag before last -> last tag -> next tag, with "Normalize by" totals
+     */
+    public static TrigramTable build(String[] tags, HashMap<String, Integer> tagIds, int start, int[][] succ,
+                                     HashMap<String, HashMap<String, Integer>> tagData,
+                                     HashMap<String, HashMap<String, HashMap<String, Integer>>> trigramData) {
+        int numTags = tags.length;
+
+        //unigram counts: every tag occurrence is the successor of exactly one tag (or of "#")
+        long[] unigrams = new long[numTags];
+        long total = 0;
+        for (HashMap.Entry<String, HashMap<String, Integer>> row : tagData.entrySet()) {
+            if (row.getKey().equals("Normalize by")) continue;
+            for (HashMap.Entry<String, Integer> cell : row.getValue().entrySet()) {
+                if (cell.getKey().equals("Normalize by")) continue;
+                unigrams[tagIds.get(cell.getKey())] += cell.getValue();
+                total += cell.getValue();
+            }
+        }
+
+        //deleted interpolation: each trigram votes, with its count, for the estimate that best predicts it once it is
+        //taken out of the counts. Unlike TnT, every weight starts from one vote (add-one smoothing of the votes), so
+        //on a tiny corpus where one order wins every vote the others still keep a small weight; in particular the
+        //unigram weight stays above 0, so no tag that occurs in training becomes unreachable
+        double[] lambdas = {1.0, 1.0, 1.0};
+        for (HashMap.Entry<String, HashMap<String, HashMap<String, Integer>>> first : trigramData.entrySet()) {
+            for (HashMap.Entry<String, HashMap<String, Integer>> second : first.getValue().entrySet()) {
+                HashMap<String, Integer> bigrams = tagData.get(second.getKey());
+                int pairCount = second.getValue().get("Normalize by");
+                int tagCount = bigrams.get("Normalize by");
+
+                for (HashMap.Entry<String, Integer> third : second.getValue().entrySet()) {
+                    if (third.getKey().equals("Normalize by")) continue;
+                    int count = third.getValue();
+                    double c3 = pairCount > 1 ? (count - 1.0) / (pairCount - 1.0) : 0.0;
+                    double c2 = tagCount > 1 ? (bigrams.get(third.getKey()) - 1.0) / (tagCount - 1.0) : 0.0;
+                    double c1 = total > 1 ? (unigrams[tagIds.get(third.getKey())] - 1.0) / (total - 1.0) : 0.0;
+
+                    if (c3 >= c2 && c3 >= c1) lambdas[2] += count;
+                    else if (c2 >= c1) lambdas[1] += count;
+                    else lambdas[0] += count;
+                }
+            }
+        }
+        double sum = lambdas[0] + lambdas[1] + lambdas[2];
+        for (int i = 0; i < 3; i++) lambdas[i] /= sum;
+
+        //interpolated bigram rows over every next tag, with P'(next | tag) = 0 for bigrams never seen
+        double[][] backoff = new double[numTags][numTags];
+        for (int tag = 0; tag < numTags; tag++) {
+            HashMap<String, Integer> bigrams = tagData.get(tags[tag]);
+            double tagCount = bigrams == null ? 0.0 : bigrams.get("Normalize by");
+            for (int next = 0; next < numTags; next++) {
+                Integer count = bigrams == null ? null : bigrams.get(tags[next]);
+                double unigram = total > 0 ? (double) unigrams[next] / total : 0.0;
+                double bigram = count == null || tagCount == 0.0 ? 0.0 : count / tagCount;
+                backoff[tag][next] = Math.log(lambdas[0] * unigram + lambdas[1] * bigram);
+            }
+        }
+
+        //one pair state per pair of tags a row can reach (seen bigrams always can, through trigram rows), start first
+        int[][] pairOf = new int[numTags][numTags];
+        for (int[] row : pairOf) Arrays.fill(row, -1);
+        ArrayList<int[]> pairs = new ArrayList<int[]>();
+        pairOf[start][start] = 0;
+        pairs.add(new int[]{start, start});
+        for (int prev = 0; prev < numTags; prev++) {
+            int seen = 0;
+            for (int next = 0; next < numTags; next++) {
+                boolean bigram = seen < succ[prev].length && succ[prev][seen] == next;
+                if (bigram) seen++;
+                if (pairOf[prev][next] >= 0 || (!bigram && backoff[prev][next] == Double.NEGATIVE_INFINITY)) continue;
+                pairOf[prev][next] = pairs.size();
+                pairs.add(new int[]{prev, next});
+            }
+        }
+
+        int[] pairPrev = new int[pairs.size()];
+        int[] pairTag = new int[pairs.size()];
+        double[][] rows = new double[pairs.size()][];
+        for (int pair = 0; pair < pairs.size(); pair++) {
+            pairPrev[pair] = pairs.get(pair)[0];
+            pairTag[pair] = pairs.get(pair)[1];
+            rows[pair] = backoff[pairTag[pair]];
+
+            HashMap<String, HashMap<String, Integer>> first = trigramData.get(tags[pairPrev[pair]]);
+            HashMap<String, Integer> trigrams = first == null ? null : first.get(tags[pairTag[pair]]);
+            if (trigrams == null) continue;
+
+            //own row: the trigram estimate added in for every next tag seen after this pair
+            HashMap<String, Integer> bigrams = tagData.get(tags[pairTag[pair]]);
+            double pairCount = trigrams.get("Normalize by"), tagCount = bigrams.get("Normalize by");
+            rows[pair] = rows[pair].clone();
+            for (HashMap.Entry<String, Integer> third : trigrams.entrySet()) {
+                if (third.getKey().equals("Normalize by")) continue;
+                int next = tagIds.get(third.getKey());
+                rows[pair][next] = Math.log(lambdas[0] * unigrams[next] / total
+                        + lambdas[1] * bigrams.get(third.getKey()) / tagCount
+                        + lambdas[2] * third.getValue() / pairCount);
+            }
+        }
+
+        return new TrigramTable(pairOf, pairPrev, pairTag, 0, backoff, rows, lambdas);
+    }
+
+    /**
+     * Writes the table as the three weights, the interpolated bigram rows, then for every pair state its two tags and
+     * the scores of its row that differ from the bigram row, as (next tag, score) pairs
+     */
+    public void write(DataOutputStream out) throws IOException {
+        for (double lambda : lambdas) out.writeDouble(lambda);
+        out.writeInt(backoff.length);
+        for (double[] row : backoff) {
+            for (double score : row) out.writeDouble(score);
+        }
+
+        out.writeInt(rows.length);
+        out.writeInt(startPair);
+        for (int pair = 0; pair < rows.length; pair++) {
+            out.writeInt(pairPrev[pair]);
+            out.writeInt(pairTag[pair]);
+
+            double[] shared = backoff[pairTag[pair]];
+            int numOwn = 0;
+            for (int next = 0; next < shared.length; next++) {
+                if (rows[pair][next] != shared[next]) numOwn++;
+            }
+            out.writeInt(numOwn);
+            for (int next = 0; next < shared.length && numOwn > 0; next++) {
+                if (rows[pair][next] == shared[next]) continue;
+                out.writeInt(next);
+                out.writeDouble(rows[pair][next]);
+            }
+        }
+    }
+
+    /**
+     * Reads a table written by write() for a model with numTags tags, advancing the buffer past it
+     */
+    public static TrigramTable read(ByteBuffer in, int numTags) throws IOException {
+        double[] lambdas = {in.getDouble(), in.getDouble(), in.getDouble()};
+        if (in.getInt() != numTags) throw new IOException("Corrupt trigram table: wrong number of tags");
+        double[][] backoff = new double[numTags][numTags];
+        for (double[] row : backoff) {
+            in.asDoubleBuffer().get(row);
+            in.position(in.position() + 8 * row.length);
+        }
+
+        int numPairs = CompiledModel.readCount(in, 12);
+        int startPair = in.getInt();
+        if (startPair < 0 || startPair >= numPairs) throw new IOException("Corrupt trigram table: start " + startPair);
+        int[][] pairOf = new int[numTags][numTags];
+        for (int[] row : pairOf) Arrays.fill(row, -1);
+        int[] pairPrev = new int[numPairs];
+        int[] pairTag = new int[numPairs];
+        double[][] rows = new double[numPairs][];
+        for (int pair = 0; pair < numPairs; pair++) {
+            pairPrev[pair] = in.getInt();
+            pairTag[pair] = in.getInt();
+            if (pairPrev[pair] < 0 || pairPrev[pair] >= numTags || pairTag[pair] < 0 || pairTag[pair] >= numTags) {
+                throw new IOException("Corrupt trigram table: pair " + pair);
+            }
+            pairOf[pairPrev[pair]][pairTag[pair]] = pair;
+            rows[pair] = backoff[pairTag[pair]];
+
+            int numOwn = CompiledModel.readCount(in, 12);
+            if (numOwn > 0) rows[pair] = rows[pair].clone();
+            for (int i = 0; i < numOwn; i++) {
+                int next = in.getInt();
+                if (next < 0 || next >= numTags) throw new IOException("Corrupt trigram table: pair " + pair);
+                rows[pair][next] = in.getDouble();
+            }
+        }
+        return new TrigramTable(pairOf, pairPrev, pairTag, startPair, backoff, rows, lambdas);
+    }
+
+    /**
+     * Getter for the number of pair states
+     */
+    public int numPairs() {
+        return rows.length;
+    }
+
+    /**
+     * Getter for the id of the ("#", "#") pair every sentence starts from
+     */
+    public int startPair() {
+        return startPair;
+    }
+
+    /**
+     * Id of the pair state (prev, tag), or -1 if tag can never follow prev
+     */
+    public int pair(int prev, int tag) {
+        return pairOf[prev][tag];
+    }
+
+    /**
+     * Pair state ids of every pair starting with tag, indexed by the second tag (-1 where it can never follow tag).
+     * The array is the table's own and must not be modified
+     */
+    public int[] pairsFrom(int tag) {
+        return pairOf[tag];
+    }
+
+    /**
+     * Getter for the last tag of a pair state
+     */
+    public int tag(int pair) {
+        return pairTag[pair];
+    }
+
+    /**
+     * Interpolated log probability of next following the two tags of a pair state
+     */
+    public double score(int pair, int next) {
+        return rows[pair][next];
+    }
+
+    /**
+     * Interpolated log probabilities of every next tag after a pair state, indexed by tag. The array is the table's own
+     * (and may be shared with other pairs), so it must not be modified
+     */
+    public double[] row(int pair) {
+        return rows[pair];
+    }
+
+    /**
+     * Getter for the interpolation weight of the unigram (order 1), bigram (2) or trigram (3) estimate
+     */
+    public double lambda(int order) {
+        return lambdas[order - 1];
+    }
+}
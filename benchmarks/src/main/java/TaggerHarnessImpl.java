@@ -0,0 +1,69 @@
+import bench.TaggerHarness;
+
+import java.io.*;
+import java.util.List;
+
+/**
+ * Default-package side of the benchmark harness, forwarding to a POSTaggerEC
+ */
+
+public class TaggerHarnessImpl implements TaggerHarness {
+    private static final PrintStream DISCARD = new PrintStream(OutputStream.nullOutputStream());
+
+    private POSTaggerEC pt = new POSTaggerEC();
+    private boolean trigram = false;
+    private boolean unknownWordModel = false;
+
+    public void train(String sentFile, String tagFile, int numThreads) {
+        pt = new POSTaggerEC();
+        pt.setTrigram(trigram);
+        pt.setUnknownWordModel(unknownWordModel);
+        pt.setTrainingData(sentFile, tagFile);
+        if (numThreads <= 1) pt.train();
+        else pt.train(numThreads);
+    }
+
+    public void setTrigram(boolean trigram) {
+        this.trigram = trigram;
+    }
+
+    public void setUnknownWordModel(boolean unknownWordModel) {
+        this.unknownWordModel = unknownWordModel;
+    }
+
+    public List<String> tag(String sentence) {
+        return pt.viterbi(sentence);
+    }
+
+    public List<String> tagMaxPlus(String sentence) {
+        return pt.maxPlusViterbi(sentence);
+    }
+
+    public List<? extends List<String>> tagBatch(List<String> sentences) {
+        return pt.tagBatch(sentences);
+    }
+
+    public List<?> nBest(String sentence, int n) {
+        return pt.nBest(sentence, n);
+    }
+
+    public Object posteriors(String sentence) {
+        return pt.posteriors(sentence);
+    }
+
+    public void evaluate(String sentFile, String tagFile, int numThreads) {
+        PrintStream out = System.out;
+        System.setOut(DISCARD);
+        try {
+            if (numThreads <= 1) pt.testTagger(sentFile, tagFile);
+            else pt.testTagger(sentFile, tagFile, numThreads);
+        }
+        finally {
+            System.setOut(out);
+        }
+    }
+
+    public List<String> suggestNextWords(String phrase, int n) {
+        return pt.suggestNext(phrase, n);
+    }
+}
@@ -0,0 +1,63 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tagging a batch of sentences of mixed lengths with tagBatch() against one viterbi() call per sentence
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BatchBenchmark {
+    @Param({"256"})
+    public int batchSize;
+
+    @Param({"12", "48"})
+    public int numTags;
+
+    @Param({"false", "true"})
+    public boolean trigram;
+
+    private TaggerHarness harness;
+    private List<String> batch;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Path dir = Files.createTempDirectory("batch-bench");
+        CorpusGenerator generator = new CorpusGenerator(numTags, 20000, 15, 42);
+        generator.write(dir.resolve("sentences.txt"), dir.resolve("tags.txt"), 20000);
+
+        harness = TaggerHarness.create();
+        harness.setTrigram(trigram);
+        harness.train(dir.resolve("sentences.txt").toString(), dir.resolve("tags.txt").toString(), 1);
+
+        Random lengths = new Random(7);
+        batch = new ArrayList<String>(batchSize);
+        for (int i = 0; i < batchSize; i++) batch.add(generator.sentence(1 + lengths.nextInt(40)));
+
+        Files.delete(dir.resolve("sentences.txt"));
+        Files.delete(dir.resolve("tags.txt"));
+        Files.delete(dir);
+    }
+
+    @Benchmark
+    public List<List<String>> perSentence() {
+        List<List<String>> labels = new ArrayList<List<String>>(batch.size());
+        for (String sentence : batch) labels.add(harness.tag(sentence));
+        return labels;
+    }
+
+    @Benchmark
+    public List<? extends List<String>> tagBatch() {
+        return harness.tagBatch(batch);
+    }
+}
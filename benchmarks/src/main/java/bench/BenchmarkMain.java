@@ -0,0 +1,21 @@
+package bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.*;
+import org.openjdk.jmh.runner.options.*;
+
+/**
+ * Entry point of the benchmark jar: runs the benchmarks matching the optional regular expression (all of them by
+ * default) with the GC profiler, so every result comes with its allocation rate. Any other JMH command-line options
+ * are passed through
+ */
+
+public class BenchmarkMain {
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
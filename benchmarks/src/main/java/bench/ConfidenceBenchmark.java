@@ -0,0 +1,70 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-sentence cost of N-best decoding and forward-backward posteriors next to plain viterbi() on the same sentences
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ConfidenceBenchmark {
+    private static final int NUM_SENTENCES = 64; //distinct sentences cycled through, so no single input is special
+
+    @Param({"20"})
+    public int sentenceLength;
+
+    @Param({"12", "48"})
+    public int numTags;
+
+    @Param({"5"})
+    public int numPaths;
+
+    private TaggerHarness harness;
+    private String[] sentences;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Path dir = Files.createTempDirectory("confidence-bench");
+        CorpusGenerator generator = new CorpusGenerator(numTags, 20000, 15, 42);
+        generator.write(dir.resolve("sentences.txt"), dir.resolve("tags.txt"), 20000);
+
+        harness = TaggerHarness.create();
+        harness.train(dir.resolve("sentences.txt").toString(), dir.resolve("tags.txt").toString(), 1);
+
+        sentences = new String[NUM_SENTENCES];
+        for (int i = 0; i < NUM_SENTENCES; i++) sentences[i] = generator.sentence(sentenceLength);
+
+        Files.delete(dir.resolve("sentences.txt"));
+        Files.delete(dir.resolve("tags.txt"));
+        Files.delete(dir);
+    }
+
+    @Benchmark
+    public List<String> viterbi() {
+        next = (next + 1) % NUM_SENTENCES;
+        return harness.tag(sentences[next]);
+    }
+
+    @Benchmark
+    public List<?> nBest() {
+        next = (next + 1) % NUM_SENTENCES;
+        return harness.nBest(sentences[next], numPaths);
+    }
+
+    @Benchmark
+    public Object posteriors() {
+        next = (next + 1) % NUM_SENTENCES;
+        return harness.posteriors(sentences[next]);
+    }
+}
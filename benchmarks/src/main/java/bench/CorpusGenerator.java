@@ -0,0 +1,94 @@
+package bench;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Random;
+
+/**
+ * Generates synthetic tagged corpora for the benchmarks: sentences are drawn from a random first-order tag chain in
+ * which every tag favours a few successors, and every tag emits words from its own Zipf-like slice of the vocabulary,
+ * with some words shared between tags
+ */
+
+public class CorpusGenerator {
+    private final int numTags;
+    private final int vocabSize;
+    private final int meanLength;
+    private final Random random;
+    private final int[][] successors; //favoured next tags of each tag
+
+    /**
+     * @param numTags size of the tag set
+     * @param vocabSize number of distinct words
+     * @param meanLength mean sentence length in words
+     * @param seed random seed, so runs are repeatable
+     */
+    public CorpusGenerator(int numTags, int vocabSize, int meanLength, long seed) {
+        this.numTags = numTags;
+        this.vocabSize = vocabSize;
+        this.meanLength = meanLength;
+        this.random = new Random(seed);
+
+        successors = new int[numTags][Math.min(4, numTags)];
+        for (int tag = 0; tag < numTags; tag++) {
+            for (int i = 0; i < successors[tag].length; i++) successors[tag][i] = random.nextInt(numTags);
+        }
+    }
+
+    /**
+     * Writes numSentences sentences and their tags to sentFile and tagFile, one sentence per line
+     */
+    public void write(Path sentFile, Path tagFile, int numSentences) throws IOException {
+        try (BufferedWriter sents = Files.newBufferedWriter(sentFile, StandardCharsets.UTF_8);
+             BufferedWriter tags = Files.newBufferedWriter(tagFile, StandardCharsets.UTF_8)) {
+            StringBuilder sent = new StringBuilder();
+            StringBuilder tag = new StringBuilder();
+            for (int s = 0; s < numSentences; s++) {
+                sent.setLength(0);
+                tag.setLength(0);
+                int length = 1 + random.nextInt(2 * meanLength);
+                int curTag = random.nextInt(numTags);
+                for (int i = 0; i < length; i++) {
+                    if (i > 0) {
+                        sent.append(' ');
+                        tag.append(' ');
+                        curTag = nextTag(curTag);
+                    }
+                    sent.append(word(curTag));
+                    tag.append('T').append(curTag);
+                }
+                sents.append(sent).append('\n');
+                tags.append(tag).append('\n');
+            }
+        }
+    }
+
+    /**
+     * A sentence of exactly length words from the same distribution, with roughly one word in twenty unseen
+     */
+    public String sentence(int length) {
+        StringBuilder sent = new StringBuilder();
+        int curTag = random.nextInt(numTags);
+        for (int i = 0; i < length; i++) {
+            if (i > 0) {
+                sent.append(' ');
+                curTag = nextTag(curTag);
+            }
+            sent.append(random.nextInt(20) == 0 ? "unseen" + random.nextInt(1000) : word(curTag));
+        }
+        return sent.toString();
+    }
+
+    private int nextTag(int tag) {
+        //mostly a favoured successor, sometimes any tag
+        if (random.nextInt(8) == 0) return random.nextInt(numTags);
+        return successors[tag][random.nextInt(successors[tag].length)];
+    }
+
+    private String word(int tag) {
+        //Zipf-like rank within the tag's slice of the vocabulary, which overlaps the next tag's slice
+        int rank = (int) Math.pow(vocabSize, random.nextDouble()) - 1;
+        return "w" + ((tag * (vocabSize / numTags) + rank) % vocabSize);
+    }
+}
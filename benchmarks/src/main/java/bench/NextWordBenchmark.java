@@ -0,0 +1,61 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of next-word suggestions for a phrase through suggestNext(), the path behind bestNextWord()
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class NextWordBenchmark {
+    private static final int NUM_PHRASES = 64; //distinct phrases cycled through
+
+    @Param({"5", "20"})
+    public int phraseLength;
+
+    @Param({"48"})
+    public int numTags;
+
+    @Param({"20000", "200000"})
+    public int vocabSize;
+
+    @Param({"1", "5"})
+    public int numSuggestions;
+
+    private TaggerHarness harness;
+    private String[] phrases;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Path dir = Files.createTempDirectory("next-word-bench");
+        CorpusGenerator generator = new CorpusGenerator(numTags, vocabSize, 15, 42);
+        generator.write(dir.resolve("sentences.txt"), dir.resolve("tags.txt"), 50000);
+
+        harness = TaggerHarness.create();
+        harness.train(dir.resolve("sentences.txt").toString(), dir.resolve("tags.txt").toString(), 1);
+
+        phrases = new String[NUM_PHRASES];
+        for (int i = 0; i < NUM_PHRASES; i++) phrases[i] = generator.sentence(phraseLength);
+
+        Files.delete(dir.resolve("sentences.txt"));
+        Files.delete(dir.resolve("tags.txt"));
+        Files.delete(dir);
+    }
+
+    @Benchmark
+    public List<String> suggestNext() {
+        next = (next + 1) % NUM_PHRASES;
+        return harness.suggestNextWords(phrases[next], numSuggestions);
+    }
+}
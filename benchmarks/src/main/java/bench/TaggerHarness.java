@@ -0,0 +1,73 @@
+package bench;
+
+import java.util.List;
+
+/**
+ * What the benchmarks drive on the tagger. The tagger lives in the default package, which a named package cannot
+ * import, so the benchmarks reach it through this interface and the default-package TaggerHarnessImpl
+ */
+
+public interface TaggerHarness {
+    /**
+     * Trains a fresh tagger on the given files, with train() when numThreads is 1 or less and train(numThreads)
+     * otherwise
+     */
+    void train(String sentFile, String tagFile, int numThreads);
+
+    /**
+     * Chooses whether later calls to train() build a second-order (trigram) model
+     */
+    void setTrigram(boolean trigram);
+
+    /**
+     * Chooses whether later calls to train() build the suffix-based unknown-word model
+     */
+    void setUnknownWordModel(boolean unknownWordModel);
+
+    /**
+     * Tags one sentence with viterbi()
+     */
+    List<String> tag(String sentence);
+
+    /**
+     * Tags one sentence with maxPlusViterbi()
+     */
+    List<String> tagMaxPlus(String sentence);
+
+    /**
+     * Tags a batch of sentences with tagBatch()
+     */
+    List<? extends List<String>> tagBatch(List<String> sentences);
+
+    /**
+     * The n best tag sequences of one sentence with nBest()
+     */
+    List<?> nBest(String sentence, int n);
+
+    /**
+     * Posterior marginals of one sentence with posteriors()
+     */
+    Object posteriors(String sentence);
+
+    /**
+     * Runs testTagger() on the given files, sequentially when numThreads is 1 or less, with its output discarded
+     */
+    void evaluate(String sentFile, String tagFile, int numThreads);
+
+    /**
+     * Suggests up to n next words for a phrase with suggestNext()
+     */
+    List<String> suggestNextWords(String phrase, int n);
+
+    /**
+     * Creates a harness over a new, untrained tagger
+     */
+    static TaggerHarness create() {
+        try {
+            return (TaggerHarness) Class.forName("TaggerHarnessImpl").getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Tagger harness not on the classpath", e);
+        }
+    }
+}
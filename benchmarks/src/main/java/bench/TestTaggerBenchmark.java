@@ -0,0 +1,60 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end testTagger() over a held-out synthetic file: reading, decoding and scoring, sequential and parallel,
+ * with a bigram or trigram model
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TestTaggerBenchmark {
+    @Param({"5000"})
+    public int numSentences;
+
+    @Param({"48"})
+    public int numTags;
+
+    @Param({"1", "4"})
+    public int numThreads;
+
+    @Param({"false", "true"})
+    public boolean trigram;
+
+    private Path dir;
+    private TaggerHarness harness;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("test-tagger-bench");
+        CorpusGenerator generator = new CorpusGenerator(numTags, 20000, 15, 42);
+        generator.write(dir.resolve("train-sentences.txt"), dir.resolve("train-tags.txt"), 20000);
+        generator.write(dir.resolve("test-sentences.txt"), dir.resolve("test-tags.txt"), numSentences);
+
+        harness = TaggerHarness.create();
+        harness.setTrigram(trigram);
+        harness.train(dir.resolve("train-sentences.txt").toString(), dir.resolve("train-tags.txt").toString(), 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        for (String name : new String[]{"train-sentences.txt", "train-tags.txt", "test-sentences.txt", "test-tags.txt"}) {
+            Files.deleteIfExists(dir.resolve(name));
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public void testTagger() {
+        harness.evaluate(dir.resolve("test-sentences.txt").toString(), dir.resolve("test-tags.txt").toString(), numThreads);
+    }
+}
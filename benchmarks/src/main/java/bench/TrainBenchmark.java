@@ -0,0 +1,51 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Training throughput on a synthetic corpus, single-threaded train() and the sharded train(numThreads)
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TrainBenchmark {
+    @Param({"10000", "100000"})
+    public int numSentences;
+
+    @Param({"12", "48"})
+    public int numTags;
+
+    @Param({"1", "4"})
+    public int numThreads;
+
+    private Path dir;
+    private TaggerHarness harness;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("train-bench");
+        new CorpusGenerator(numTags, 20000, 15, 42).write(dir.resolve("sentences.txt"), dir.resolve("tags.txt"), numSentences);
+        harness = TaggerHarness.create();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(dir.resolve("sentences.txt"));
+        Files.deleteIfExists(dir.resolve("tags.txt"));
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public TaggerHarness train() {
+        harness.train(dir.resolve("sentences.txt").toString(), dir.resolve("tags.txt").toString(), numThreads);
+        return harness;
+    }
+}
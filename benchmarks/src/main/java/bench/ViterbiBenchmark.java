@@ -0,0 +1,71 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-sentence viterbi() latency against sentence length, tag set size, model order and unknown-word model, next to
+ * maxPlusViterbi() on the same sentences. The fork adds the jdk.incubator.vector module so the max-plus kernel runs on
+ * SIMD lanes
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class ViterbiBenchmark {
+    private static final int NUM_SENTENCES = 64; //distinct sentences cycled through, so no single input is special
+
+    @Param({"5", "20", "80"})
+    public int sentenceLength;
+
+    @Param({"12", "48", "96"})
+    public int numTags;
+
+    @Param({"false", "true"})
+    public boolean trigram;
+
+    @Param({"false", "true"})
+    public boolean unknownWordModel;
+
+    private TaggerHarness harness;
+    private String[] sentences;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Path dir = Files.createTempDirectory("viterbi-bench");
+        CorpusGenerator generator = new CorpusGenerator(numTags, 20000, 15, 42);
+        generator.write(dir.resolve("sentences.txt"), dir.resolve("tags.txt"), 20000);
+
+        harness = TaggerHarness.create();
+        harness.setTrigram(trigram);
+        harness.setUnknownWordModel(unknownWordModel);
+        harness.train(dir.resolve("sentences.txt").toString(), dir.resolve("tags.txt").toString(), 1);
+
+        sentences = new String[NUM_SENTENCES];
+        for (int i = 0; i < NUM_SENTENCES; i++) sentences[i] = generator.sentence(sentenceLength);
+
+        Files.delete(dir.resolve("sentences.txt"));
+        Files.delete(dir.resolve("tags.txt"));
+        Files.delete(dir);
+    }
+
+    @Benchmark
+    public List<String> viterbi() {
+        next = (next + 1) % NUM_SENTENCES;
+        return harness.tag(sentences[next]);
+    }
+
+    @Benchmark
+    public List<String> maxPlusViterbi() {
+        next = (next + 1) % NUM_SENTENCES;
+        return harness.tagMaxPlus(sentences[next]);
+    }
+}
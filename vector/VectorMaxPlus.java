@@ -0,0 +1,60 @@
+import jdk.incubator.vector.*;
+
+/**
+ * SIMD implementation of MaxPlus over the preferred DoubleVector species: each lane keeps the best sum and the index
+ * of its first occurrence among the states it sees, then the lanes are reduced to the overall max and the lowest
+ * index reaching it, which is the same state the scalar loop picks. Only compiled and loaded with
+ * --add-modules jdk.incubator.vector (see MaxPlus.load)
+ */
+
+public class VectorMaxPlus implements MaxPlus {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final DoubleVector IOTA; //lane indices 0, 1, 2, ...
+
+    static {
+        double[] iota = new double[SPECIES.length()];
+        for (int i = 0; i < iota.length; i++) iota[i] = i;
+        IOTA = DoubleVector.fromArray(SPECIES, iota, 0);
+    }
+
+    public int argMax(double[] scores, double[] column, double obs) {
+        int length = scores.length;
+        int upper = SPECIES.loopBound(length);
+        double best = Double.NEGATIVE_INFINITY;
+        int arg = -1;
+
+        if (upper > 0) {
+            DoubleVector obsLanes = DoubleVector.broadcast(SPECIES, obs);
+            DoubleVector bestLanes = DoubleVector.broadcast(SPECIES, Double.NEGATIVE_INFINITY);
+            DoubleVector argLanes = DoubleVector.broadcast(SPECIES, -1.0); //state ids are exact as doubles
+            for (int prev = 0; prev < upper; prev += SPECIES.length()) {
+                DoubleVector sum = DoubleVector.fromArray(SPECIES, scores, prev)
+                        .add(DoubleVector.fromArray(SPECIES, column, prev)).add(obsLanes);
+                VectorMask<Double> better = sum.compare(VectorOperators.GT, bestLanes);
+                bestLanes = bestLanes.blend(sum, better);
+                argLanes = argLanes.blend(IOTA.add(prev), better);
+            }
+
+            best = bestLanes.reduceLanes(VectorOperators.MAX);
+            if (best > Double.NEGATIVE_INFINITY) {
+                //lowest index among the lanes holding the max
+                VectorMask<Double> other = bestLanes.compare(VectorOperators.NE, best);
+                arg = (int) argLanes.blend(Double.MAX_VALUE, other).reduceLanes(VectorOperators.MIN);
+            }
+        }
+
+        //leftover states, all after the vector ones, so only a strictly better sum replaces the max
+        for (int prev = upper; prev < length; prev++) {
+            double score = scores[prev] + column[prev] + obs;
+            if (score > best) {
+                best = score;
+                arg = prev;
+            }
+        }
+        return arg;
+    }
+
+    public String name() {
+        return "vector (" + SPECIES.length() + " lanes)";
+    }
+}